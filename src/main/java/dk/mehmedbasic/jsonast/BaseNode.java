@@ -1,23 +1,67 @@
 package dk.mehmedbasic.jsonast;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * The base Json node that is the superclass for all nodes in the system.
  * <br/><br/>
  * All nodes are mutable, to accommodate the transformation logic.<br/>
  * This means that every transformer().apply() will potentially change the tree.<br/>
+ * The nodes of a {@link FrozenDocument} are the exception, changing them throws an
+ * {@link UnsupportedOperationException}.
  */
 public abstract class BaseNode {
 
+  /**
+   * Creates a node with an empty identifier. The identifier is created up front rather than on
+   * the first read, so reading a node never changes it.
+   */
+  protected BaseNode() {
+    identifier = new JsonIdentifier();
+    identifier.setOwner(this);
+  }
+
   public JsonIdentifier getIdentifier() {
     return identifier;
   }
 
+  /**
+   * Sets the identifier of this node.
+   *
+   * @param identifier the identifier, null for an empty one.
+   */
   public void setIdentifier(JsonIdentifier identifier) {
-    this.identifier = identifier;
+    beforeChange();
+    JsonPatchRecorder recorder = JsonPatchRecorder.active();
+    String from = recorder == null ? null : recorder.pathOf(this);
+    NodeIndex active = activeIndex();
+    if (active != null) {
+      active.remove(this);
+    }
+
+    String oldName = this.identifier.getName();
+    this.identifier = identifier == null ? new JsonIdentifier() : identifier;
+    this.identifier.setOwner(this);
+
+    if (active != null) {
+      active.add(this);
+    }
+    if (parent != null && !Objects.equals(oldName, this.identifier.getName())) {
+      parent.childRenamed(this, oldName);
+    }
+
+    if (from != null) {
+      recorder.renamed(this, from);
+    }
   }
 
   public BaseNode getParent() {
@@ -25,11 +69,252 @@ public abstract class BaseNode {
   }
 
   public void setParent(BaseNode parent) {
+    checkNotFrozen();
     this.parent = parent;
   }
 
-  private JsonIdentifier identifier = new JsonIdentifier();
+  /**
+   * The slot of this node in the children of its parent, maintained by {@link ChildList}.
+   */
+  int getSlot() {
+    return slot;
+  }
+
+  void setSlot(int slot) {
+    this.slot = slot;
+  }
+
+  /**
+   * The index of the document this node is in, maintained by {@link NodeIndex}.
+   */
+  NodeIndex getIndex() {
+    return entry == null ? null : entry.index();
+  }
+
+  /**
+   * The place of this node in the document order of its index.
+   */
+  NodeIndex.Entry getEntry() {
+    return entry;
+  }
+
+  void setEntry(NodeIndex.Entry entry) {
+    // A frozen node never changes, so no other index needs to hear about it
+    if (!frozen) {
+      this.entry = entry;
+    }
+  }
+
+  /**
+   * Gets the index that has this node in it, roots of a document are not indexed.
+   *
+   * @return the index or null.
+   */
+  NodeIndex activeIndex() {
+    return parent == null ? null : getIndex();
+  }
+
+  /**
+   * Whether this node is part of a {@link FrozenDocument}.
+   *
+   * @return true if the node cannot be changed.
+   */
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  /**
+   * Makes this node unchangeable. The node must not be shared with another thread yet.
+   */
+  void freeze() {
+    frozen = true;
+  }
+
+  /**
+   * Fails if this node is frozen, must be called before any change is made.
+   */
+  void checkNotFrozen() {
+    if (frozen) {
+      throw new UnsupportedOperationException("Frozen nodes cannot be changed: " + identifier);
+    }
+  }
+
+  /**
+   * Must be called before the identifier, value or children of this node are changed. Fails if
+   * the node is frozen, and tells the history tracking the node, if any, and the open
+   * {@link UndoLog}, if any.
+   */
+  void beforeChange() {
+    checkNotFrozen();
+    if (history != null) {
+      history.changed(this);
+    }
+    UndoLog.changing(this);
+  }
+
+  /**
+   * Sets the history that is told about changes to this node, see {@link DocumentHistory}.
+   */
+  void setHistory(DocumentHistory history) {
+    this.history = history;
+  }
+
+  DocumentHistory getHistory() {
+    return history;
+  }
+
+  /**
+   * Copies this node without its children. The identifier is copied, and so is the value of a
+   * value node.
+   *
+   * @return the detached copy.
+   */
+  BaseNode shallowCopy() {
+    BaseNode copy;
+    if (isObject()) {
+      copy = new JsonObjectNode();
+    } else if (isArray()) {
+      copy = new JsonArrayNode();
+    } else if (isValueNode()) {
+      JsonValueNode value = new JsonValueNode(null);
+      value.copyValue((JsonValueNode) this);
+      copy = value;
+    } else {
+      throw new IllegalArgumentException("Unknown node type: " + this);
+    }
+
+    copy.setIdentifier(getIdentifier().copy());
+    return copy;
+  }
+
+  /**
+   * Copies this node and its subtree. The copy is detached, mutable and shares no nodes with this
+   * one, even if this node is frozen. Values are not boxed or copied, strings and big decimals are
+   * immutable and shared with the copy, and the child lists are sized up front.
+   * <br/><br/>
+   * The subtree is walked with a stack, so deep trees do not overflow.
+   *
+   * @return the copy.
+   */
+  public BaseNode deepCopy() {
+    BaseNode root = shallowCopy();
+    Deque<BaseNode[]> stack = new ArrayDeque<>();
+    stack.push(new BaseNode[]{this, root});
+    while (!stack.isEmpty()) {
+      BaseNode[] pair = stack.pop();
+      List<BaseNode> children = pair[0].getChildren();
+      if (children.isEmpty()) {
+        continue;
+      }
+
+      List<BaseNode> copies = new ArrayList<>(children.size());
+      for (BaseNode child : children) {
+        BaseNode copy = child.shallowCopy();
+        copies.add(copy);
+        stack.push(new BaseNode[]{child, copy});
+      }
+      pair[1].addChildren(copies);
+    }
+
+    return root;
+  }
+
+  /**
+   * Gets the children of an object or array.
+   *
+   * @return the children, or null if the node cannot have any.
+   */
+  ChildList childList() {
+    return null;
+  }
+
+  /**
+   * Gets the children in order.
+   *
+   * @return an unmodifiable list of the children, empty for a value node.
+   */
+  public List<BaseNode> getChildren() {
+    ChildList children = childList();
+    return children == null ? List.of() : children;
+  }
+
+  /**
+   * Tells the parent of a node that the node was renamed.
+   *
+   * @param child the renamed child, which belongs to this node.
+   * @param oldName the name it had.
+   */
+  void childRenamed(BaseNode child, String oldName) {
+  }
+
+  /**
+   * Tells a node that a child it lists belongs to it again, after it was added to another parent
+   * and renamed there, which this node was not told about.
+   *
+   * @param child the child.
+   */
+  void childReturned(BaseNode child) {
+  }
+
+  /**
+   * Undoes the addition of a child, for the {@link UndoLog}, after the child list has been put
+   * back. The child goes back to the parent it had, and to the document index it was in.
+   *
+   * @param child the child that was added.
+   * @param oldParent the parent it had before.
+   * @param oldEntry the entry it had in a document index before.
+   */
+  private void undoAdd(BaseNode child, BaseNode oldParent, NodeIndex.Entry oldEntry) {
+    if (frozen) {
+      return;
+    }
+
+    beforeChange();
+    if (child.entry != oldEntry && child.getIndex() != null) {
+      child.getIndex().detach(child);
+    }
+    if (history != null && oldParent == null) {
+      history.removed(child);
+    }
+
+    child.parent = oldParent;
+    if (oldParent != null) {
+      oldParent.childReturned(child);
+    }
+    if (oldEntry != null && child.entry == null && oldParent != null) {
+      NodeIndex index = oldParent.getIndex();
+      if (index != null) {
+        index.attach(child);
+      }
+    }
+  }
+
+  /**
+   * Undoes the removal of a child, for the {@link UndoLog}, after the child list has been put
+   * back. The child belongs to this node again, and goes back into the document index.
+   *
+   * @param child the child that was removed.
+   * @param oldEntry the entry it had in a document index before.
+   */
+  private void undoRemove(BaseNode child, NodeIndex.Entry oldEntry) {
+    if (frozen) {
+      return;
+    }
+
+    beforeChange();
+    child.parent = this;
+    NodeIndex index = getIndex();
+    if (oldEntry != null && child.entry == null && index != null) {
+      index.attach(child);
+    }
+  }
+
+  private JsonIdentifier identifier;
   private BaseNode parent;
+  private int slot = -1;
+  private NodeIndex.Entry entry;
+  private boolean frozen;
+  private DocumentHistory history;
 
   /**
    * Whether this is a value node.
@@ -85,6 +370,15 @@ public abstract class BaseNode {
     return false;
   }
 
+  /**
+   * Whether this node is a long value.
+   *
+   * @return true or false.
+   */
+  public boolean isLong() {
+    return false;
+  }
+
   /**
    * Whether this node is a double value.
    *
@@ -94,6 +388,15 @@ public abstract class BaseNode {
     return false;
   }
 
+  /**
+   * Whether this node is a big decimal value.
+   *
+   * @return true or false.
+   */
+  public boolean isBigDecimal() {
+    return false;
+  }
+
   /**
    * Gets a child node by index.
    *
@@ -120,7 +423,37 @@ public abstract class BaseNode {
    * @param node the node to add.
    */
   public void addChild(BaseNode node) {
+    beforeChange();
+    node.checkNotFrozen();
+    UndoLog log = UndoLog.active();
+    if (log != null) {
+      // Recorded before the child list changes, so it is undone after the list is
+      BaseNode oldParent = node.parent;
+      NodeIndex.Entry oldEntry = node.entry;
+      log.record(() -> undoAdd(node, oldParent, oldEntry));
+    }
+
+    NodeIndex previous = node.activeIndex();
+    if (previous != null) {
+      // Added without leaving its parent, it belongs here from now on
+      previous.detach(node);
+    }
+
     node.setParent(this);
+    ChildList children = childList();
+    if (children != null) {
+      children.append(node);
+    }
+
+    NodeIndex index = getIndex();
+    if (index != null) {
+      index.attach(node);
+    }
+
+    JsonPatchRecorder recorder = JsonPatchRecorder.active();
+    if (recorder != null) {
+      recorder.added(this, node);
+    }
   }
 
   /**
@@ -129,6 +462,72 @@ public abstract class BaseNode {
    * @param node the node to remove.
    */
   public void removeNode(BaseNode node) {
+    beforeChange();
+    ChildList children = childList();
+    if (children != null) {
+      JsonPatchRecorder recorder = JsonPatchRecorder.active();
+      if (recorder != null) {
+        recorder.removing(this, node);
+      }
+    }
+
+    boolean owned = node.getParent() == this;
+    UndoLog log = owned ? UndoLog.active() : null;
+    if (log != null) {
+      // Recorded before the child list changes, so it is undone after the list is
+      NodeIndex.Entry oldEntry = node.entry;
+      log.record(() -> undoRemove(node, oldEntry));
+    }
+
+    if (children != null && !children.delete(node)) {
+      return;
+    }
+
+    if (owned) {
+      NodeIndex index = getIndex();
+      if (index != null) {
+        index.detach(node);
+      }
+      if (history != null) {
+        history.removed(node);
+      }
+      node.setParent(null);
+    }
+  }
+
+  /**
+   * Adds several child nodes, in order.
+   *
+   * @param nodes the nodes to add.
+   */
+  public void addChildren(Collection<? extends BaseNode> nodes) {
+    beforeChange();
+    for (BaseNode node : nodes) {
+      addChild(node);
+    }
+  }
+
+  /**
+   * Removes several child nodes. Nodes that are not children of this node are ignored.
+   * <br/><br/>
+   * Removal is constant time per node, and the child list is compacted once afterwards.
+   *
+   * @param nodes the nodes to remove.
+   */
+  public void removeNodes(Collection<? extends BaseNode> nodes) {
+    ChildList children = childList();
+    if (children != null) {
+      children.beginBatch();
+    }
+    try {
+      for (BaseNode node : nodes) {
+        removeNode(node);
+      }
+    } finally {
+      if (children != null) {
+        children.endBatch();
+      }
+    }
   }
 
   /**
@@ -162,6 +561,42 @@ public abstract class BaseNode {
    * @param newParent the new parent.
    */
   public void changeParent(BaseNode newParent) {
+    JsonPatchRecorder recorder = JsonPatchRecorder.active();
+    if (recorder != null) {
+      // Recorded as a single move, rather than a removal and an addition
+      recorder.move(this, () -> moveTo(newParent));
+    } else {
+      moveTo(newParent);
+    }
+  }
+
+  /**
+   * Moves several nodes, in order, each to the parent it is mapped to. The child lists the nodes
+   * leave are compacted once afterwards, so emptying a wide parent is linear.
+   *
+   * @param moves the new parent of each node.
+   */
+  public static void changeParents(Map<BaseNode, BaseNode> moves) {
+    Set<ChildList> batches = Collections.newSetFromMap(new IdentityHashMap<>());
+    try {
+      for (BaseNode node : moves.keySet()) {
+        ChildList children = node.parent == null ? null : node.parent.childList();
+        if (children != null && batches.add(children)) {
+          children.beginBatch();
+        }
+      }
+
+      for (Map.Entry<BaseNode, BaseNode> move : moves.entrySet()) {
+        move.getKey().changeParent(move.getValue());
+      }
+    } finally {
+      for (ChildList children : batches) {
+        children.endBatch();
+      }
+    }
+  }
+
+  private void moveTo(BaseNode newParent) {
     if (parent != null) {
       parent.removeNode(this);
       parent = newParent;
@@ -184,55 +619,64 @@ public abstract class BaseNode {
     return list;
   }
 
+  /**
+   * The number of ancestors of this node.
+   *
+   * @return the depth, 0 for a root.
+   */
+  public int depth() {
+    int depth = 0;
+    for (BaseNode current = parent; current != null; current = current.getParent()) {
+      depth++;
+    }
+
+    return depth;
+  }
+
   /**
    * Calculates the distance between this nodes and the given node.
+   * <br/><br/>
+   * The parent chains are walked in place, so no lists are allocated and nothing has to be kept up
+   * to date when nodes move. To find the closest of many destinations for many sources, select the
+   * destinations once and resolve the sources against them, like the Mover does.
    *
    * @param that the node in question.
    * @return the number of jumps to the first common ancestor.
    */
   public int distanceTo(BaseNode that) {
-    List<BaseNode> parents = parents();
+    int thisDepth = depth();
+    int thatDepth = that.depth();
 
-    if (parents.contains(that)) {
-      return parents.indexOf(that);
-    } else {
-      List<BaseNode> thatParents = that.parents();
-
-      Collections.reverse(parents);
-      Collections.reverse(thatParents);
-
-      int cutoff = Math.min(parents.size(), thatParents.size());
-
-      List<BaseNode> thisCut = parents.subList(0, cutoff);
-      List<BaseNode> thatCut = thatParents.subList(0, cutoff);
+    if (thatDepth < thisDepth && ancestor(this, thisDepth - thatDepth) == that) {
+      return thisDepth - thatDepth - 1;
+    }
 
-      var lca = findLcaAndDepth(thisCut, thatCut);
+    // The deepest ancestor shared by both parents
+    int lcaDepth = -1;
+    if (parent != null && that.getParent() != null) {
+      BaseNode a = parent;
+      BaseNode b = that.getParent();
+      int depth = Math.min(thisDepth, thatDepth) - 1;
+      a = ancestor(a, thisDepth - 1 - depth);
+      b = ancestor(b, thatDepth - 1 - depth);
+
+      while (a != b) {
+        a = a.getParent();
+        b = b.getParent();
+        depth--;
+      }
 
-      int distanceToRoot = parents.size() + thatParents.size();
-      int twoLca = 2 * lca.distance();
-      return distanceToRoot - twoLca - 1;
+      lcaDepth = depth;
     }
-  }
 
-  /**
-   * Finds the lowest common ancestor.
-   *
-   * @param thisCut this parents,
-   */
-  private static NodeDistance findLcaAndDepth(List<BaseNode> thisCut,
-      List<BaseNode> thatCut) {
-    BaseNode previous = null;
-    for (int i = 0; i < thatCut.size(); i++) {
-      BaseNode a = thisCut.get(i);
-      BaseNode b = thatCut.get(i);
-
-      if (a != b) {
-        return new NodeDistance(previous, i - 1);
-      }
+    return thisDepth + thatDepth - 2 * lcaDepth - 1;
+  }
 
-      previous = a;
+  private static BaseNode ancestor(BaseNode node, int steps) {
+    for (int i = 0; i < steps; i++) {
+      node = node.getParent();
     }
 
-    return new NodeDistance(previous, thatCut.size() - 1);
+    return node;
   }
 }
@@ -0,0 +1,373 @@
+package dk.mehmedbasic.jsonast;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
+
+/**
+ * The ordered children of an object or array node.
+ * <br/><br/>
+ * Every child knows its slot in the list, so a removal finds the child without a scan. A single
+ * removal shifts the children after it at once. Inside a batch, see {@link #beginBatch()}, a
+ * removal leaves a tombstone instead, and the tombstones are compacted in one pass when the batch
+ * ends, or when they take up half the list, so a batch of removals is linear overall.
+ * <br/><br/>
+ * The list is read-only through the {@link java.util.List} interface, and reading it never changes
+ * it. Reads by index skip the tombstones of an open batch, which costs a scan.
+ * <br/><br/>
+ * Every change tells the open {@link UndoLog}, if any, how to undo it: an append is undone by
+ * dropping the last slot, a removal by putting the child back in its slot, and a compaction by
+ * spreading the children out over their old slots again. Undoing a change costs what the change
+ * did.
+ */
+final class ChildList extends AbstractList<BaseNode> implements RandomAccess {
+
+  private static final BaseNode[] EMPTY = new BaseNode[0];
+
+  private final BaseNode owner;
+  private BaseNode[] elements = EMPTY;
+  /**
+   * The number of used slots, including tombstones.
+   */
+  private int end;
+  private int tombstones;
+  private int batches;
+
+  /**
+   * Creates an empty list.
+   *
+   * @param owner the node the children belong to.
+   */
+  ChildList(BaseNode owner) {
+    this.owner = owner;
+  }
+
+  /**
+   * Appends a node and records its slot.
+   *
+   * @param node the node to append.
+   */
+  void append(BaseNode node) {
+    UndoLog log = UndoLog.active();
+    if (log != null) {
+      int oldSlot = node.getSlot();
+      log.record(() -> undoAppend(node, oldSlot));
+    }
+
+    ensureCapacity(end + 1);
+    node.setSlot(end);
+    elements[end++] = node;
+    modCount++;
+  }
+
+  /**
+   * Removes a node.
+   *
+   * @param node the node to remove.
+   * @return true if the node was a child.
+   */
+  boolean delete(BaseNode node) {
+    int slot = node.getSlot();
+    if (slot < 0 || slot >= end || elements[slot] != node) {
+      // The node was added to several parents, look it up the slow way
+      slot = rawIndexOf(node);
+      if (slot < 0) {
+        return false;
+      }
+    }
+
+    UndoLog log = UndoLog.active();
+    if (log != null) {
+      int removed = slot;
+      int oldSlot = node.getSlot();
+      boolean shifted = batches == 0;
+      log.record(() -> undoDelete(node, removed, oldSlot, shifted));
+    }
+
+    node.setSlot(-1);
+    modCount++;
+    if (batches == 0) {
+      shiftDown(slot);
+      return true;
+    }
+
+    elements[slot] = null;
+    tombstones++;
+    if (tombstones > 16 && tombstones * 2 > end) {
+      compact();
+    }
+
+    return true;
+  }
+
+  /**
+   * Starts a batch of removals, which are compacted together when the batch ends. Batches may be
+   * nested.
+   */
+  void beginBatch() {
+    batches++;
+  }
+
+  /**
+   * Ends a batch of removals, and compacts the list when the outermost batch ends.
+   */
+  void endBatch() {
+    if (batches == 0) {
+      throw new IllegalStateException("No batch is open");
+    }
+    if (--batches == 0) {
+      compact();
+    }
+  }
+
+  /**
+   * Makes room for the given number of slots.
+   *
+   * @param capacity the number of slots.
+   */
+  void ensureCapacity(int capacity) {
+    if (capacity > elements.length) {
+      elements = Arrays.copyOf(elements, Math.max(capacity, Math.max(4, elements.length * 2)));
+    }
+  }
+
+  /**
+   * Finds the last child before the given one that passes a test.
+   *
+   * @param node the child to look before, or null to look from the end.
+   * @param test the test.
+   * @return the child, or null if none passes.
+   */
+  BaseNode lastBefore(BaseNode node, Predicate<BaseNode> test) {
+    int slot = node == null ? -1 : rawIndexOf(node);
+    for (int i = (slot < 0 ? end : slot) - 1; i >= 0; i--) {
+      BaseNode child = elements[i];
+      if (child != null && test.test(child)) {
+        return child;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Gets the slot of a child, which orders the children like their indexes do. The slot a child
+   * records may belong to another parent it was added to, so it is checked first.
+   *
+   * @param node the child.
+   * @return the slot, or -1 if the node is not a child.
+   */
+  int slotOf(BaseNode node) {
+    return rawIndexOf(node);
+  }
+
+  @Override
+  public BaseNode get(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size());
+    }
+    if (tombstones == 0) {
+      return elements[index];
+    }
+
+    int remaining = index;
+    for (int i = 0; i < end; i++) {
+      if (elements[i] != null && remaining-- == 0) {
+        return elements[i];
+      }
+    }
+
+    throw new IllegalStateException("The tombstones are out of count");
+  }
+
+  @Override
+  public int size() {
+    return end - tombstones;
+  }
+
+  @Override
+  public int indexOf(Object o) {
+    if (!(o instanceof BaseNode node)) {
+      return -1;
+    }
+
+    int slot = rawIndexOf(node);
+    if (slot < 0 || tombstones == 0) {
+      return slot;
+    }
+
+    int index = 0;
+    for (int i = 0; i < slot; i++) {
+      if (elements[i] != null) {
+        index++;
+      }
+    }
+
+    return index;
+  }
+
+  @Override
+  public Iterator<BaseNode> iterator() {
+    return new Iterator<>() {
+      private final int expectedModCount = modCount;
+      private int next = skipTombstones(0);
+
+      @Override
+      public boolean hasNext() {
+        return next < end;
+      }
+
+      @Override
+      public BaseNode next() {
+        if (modCount != expectedModCount) {
+          throw new ConcurrentModificationException();
+        }
+        if (next >= end) {
+          throw new NoSuchElementException();
+        }
+
+        BaseNode node = elements[next];
+        next = skipTombstones(next + 1);
+        return node;
+      }
+    };
+  }
+
+  private int skipTombstones(int from) {
+    int i = from;
+    while (i < end && elements[i] == null) {
+      i++;
+    }
+
+    return i;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return o instanceof BaseNode node && rawIndexOf(node) >= 0;
+  }
+
+  /**
+   * Closes the gap left by a removed child, moving the children after it one slot down.
+   */
+  private void shiftDown(int slot) {
+    for (int i = slot + 1; i < end; i++) {
+      elements[i].setSlot(i - 1);
+    }
+
+    System.arraycopy(elements, slot + 1, elements, slot, end - slot - 1);
+    elements[--end] = null;
+  }
+
+  private int rawIndexOf(BaseNode node) {
+    int slot = node.getSlot();
+    if (slot >= 0 && slot < end && elements[slot] == node) {
+      return slot;
+    }
+
+    for (int i = 0; i < end; i++) {
+      if (elements[i] == node) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Removes the tombstones, keeping the order of the children.
+   */
+  private void compact() {
+    if (tombstones == 0) {
+      return;
+    }
+
+    UndoLog log = UndoLog.active();
+    if (log != null) {
+      int[] holes = new int[tombstones];
+      int hole = 0;
+      for (int i = 0; i < end; i++) {
+        if (elements[i] == null) {
+          holes[hole++] = i;
+        }
+      }
+      int oldEnd = end;
+      log.record(() -> undoCompact(holes, oldEnd));
+    }
+
+    int target = 0;
+    for (int i = 0; i < end; i++) {
+      BaseNode node = elements[i];
+      if (node != null) {
+        node.setSlot(target);
+        elements[target++] = node;
+      }
+    }
+
+    Arrays.fill(elements, target, end, null);
+    end = target;
+    tombstones = 0;
+  }
+
+  private void undoAppend(BaseNode node, int oldSlot) {
+    if (owner.isFrozen()) {
+      return;
+    }
+
+    elements[--end] = null;
+    node.setSlot(oldSlot);
+    modCount++;
+  }
+
+  private void undoDelete(BaseNode node, int slot, int oldSlot, boolean shifted) {
+    if (owner.isFrozen()) {
+      return;
+    }
+
+    if (shifted) {
+      ensureCapacity(end + 1);
+      System.arraycopy(elements, slot, elements, slot + 1, end - slot);
+      end++;
+      for (int i = slot + 1; i < end; i++) {
+        elements[i].setSlot(i);
+      }
+    } else {
+      tombstones--;
+    }
+
+    elements[slot] = node;
+    node.setSlot(oldSlot);
+    modCount++;
+  }
+
+  /**
+   * Puts the tombstones back in the given slots, moving the children after them up.
+   */
+  private void undoCompact(int[] holes, int oldEnd) {
+    if (owner.isFrozen()) {
+      return;
+    }
+
+    ensureCapacity(oldEnd);
+    int source = end - 1;
+    int hole = holes.length - 1;
+    for (int i = oldEnd - 1; i >= 0; i--) {
+      if (hole >= 0 && holes[hole] == i) {
+        elements[i] = null;
+        hole--;
+      } else {
+        BaseNode node = elements[source--];
+        node.setSlot(i);
+        elements[i] = node;
+      }
+    }
+
+    end = oldEnd;
+    tombstones = holes.length;
+    modCount++;
+  }
+}
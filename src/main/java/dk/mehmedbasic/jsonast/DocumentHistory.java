@@ -0,0 +1,286 @@
+package dk.mehmedbasic.jsonast;
+
+import dk.mehmedbasic.jsonast.DocumentVersion.Node;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Records the versions of a document as it is transformed, sharing the unchanged parts between the
+ * versions.
+ * <br/><br/>
+ * The document is transformed in place as usual, while the history is told which nodes change. A
+ * change marks the node and its ancestors, and recording a version copies just the marked nodes,
+ * reusing the nodes of the previous version for every subtree that was not marked. Keeping a
+ * version costs the nodes that changed and the paths to them, not the size of the document.
+ * <br/><br/>
+ * The first version is recorded when the history is created. A history is not thread safe, and the
+ * document must only be changed through its nodes, as usual, for the changes to be seen.
+ * <br/><br/>
+ * The nodes of the document point back at the history, so a document has one history at a time.
+ * {@link #close()} detaches the history from the document, after which the versions recorded can
+ * still be read, and another history can be started. Nodes that are removed from the document are
+ * forgotten when the next version is recorded.
+ */
+public final class DocumentHistory implements AutoCloseable {
+
+  private final JsonDocument document;
+  private final List<DocumentVersion> versions = new ArrayList<>();
+  /**
+   * The node of the latest version for every node of the document that has been recorded.
+   */
+  private final Map<BaseNode, Node> recorded = new IdentityHashMap<>();
+  /**
+   * The nodes changed since they were last recorded. Nodes that were detached when a version was
+   * recorded stay marked, in case they are attached again.
+   */
+  private final Set<BaseNode> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+  /**
+   * The nodes removed from their parents since the last version, and the roots of the last
+   * version. The ones no longer in the document are forgotten when a version is recorded.
+   */
+  private final Set<BaseNode> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+  private final Set<BaseNode> roots = Collections.newSetFromMap(new IdentityHashMap<>());
+  private int created;
+  private boolean closed;
+
+  /**
+   * Starts the history of a document, and records its current state as version 0.
+   *
+   * @param document the document, which is changed by the steps applied.
+   * @throws IllegalStateException if another history of the document is open.
+   */
+  public DocumentHistory(JsonDocument document) {
+    this.document = document;
+    for (BaseNode root : document.getRoots()) {
+      checkNotTracked(root);
+    }
+    commit(null);
+  }
+
+  /**
+   * Applies a step to the document, and records the result as a new version. A step that throws
+   * is undone with an {@link UndoLog}, so the document is left as the latest version.
+   *
+   * @param step changes the document in place, for instance a transformation plan.
+   * @param label describes the step, may be null.
+   * @return the new version.
+   */
+  public DocumentVersion apply(Consumer<? super JsonDocument> step, String label) {
+    checkOpen();
+    UndoLog.atomically(() -> step.accept(document));
+    return commit(label);
+  }
+
+  /**
+   * Records the current state of the document as a new version.
+   *
+   * @param label describes the changes, may be null.
+   * @return the new version.
+   */
+  public DocumentVersion commit(String label) {
+    checkOpen();
+    created = 0;
+    List<Node> nodes = new ArrayList<>(document.getRootCount());
+    for (BaseNode root : document.getRoots()) {
+      Node node = reusable(root);
+      nodes.add(node != null ? node : record(root));
+    }
+
+    forgetRemoved();
+    DocumentVersion version = new DocumentVersion(versions.size(), label, nodes, created);
+    versions.add(version);
+    return version;
+  }
+
+  /**
+   * Detaches the history from the nodes of the document, so changing the document no longer
+   * marks them. The versions recorded are kept, and the history cannot record any more.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    for (BaseNode node : recorded.keySet()) {
+      if (node.getHistory() == this) {
+        node.setHistory(null);
+      }
+    }
+
+    recorded.clear();
+    changed.clear();
+    removed.clear();
+    roots.clear();
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  public JsonDocument getDocument() {
+    return document;
+  }
+
+  /**
+   * Gets the versions recorded, oldest first.
+   *
+   * @return the versions.
+   */
+  public List<DocumentVersion> getVersions() {
+    return Collections.unmodifiableList(versions);
+  }
+
+  public DocumentVersion getLatest() {
+    return versions.get(versions.size() - 1);
+  }
+
+  /**
+   * Marks a node and its ancestors as changed. The ancestors of a marked node are marked already,
+   * so the walk stops at the first one.
+   */
+  void changed(BaseNode node) {
+    for (BaseNode current = node; current != null && changed.add(current);
+        current = current.getParent()) {
+      // Keep walking up
+    }
+  }
+
+  /**
+   * Notes a node removed from its parent, it is forgotten with its subtree at the next version
+   * unless it has been added to the document again.
+   */
+  void removed(BaseNode node) {
+    if (!closed) {
+      removed.add(node);
+    }
+  }
+
+  /**
+   * Forgets the removed nodes and the old roots that are no longer in the document, along with
+   * their subtrees, and remembers the current roots.
+   */
+  private void forgetRemoved() {
+    for (BaseNode root : roots) {
+      if (root.getParent() == null) {
+        removed.add(root);
+      }
+    }
+    roots.clear();
+    roots.addAll(document.getRoots());
+
+    for (BaseNode node : removed) {
+      if (!inDocument(node)) {
+        forget(node);
+      }
+    }
+    removed.clear();
+  }
+
+  private boolean inDocument(BaseNode node) {
+    BaseNode top = node;
+    while (top.getParent() != null) {
+      top = top.getParent();
+    }
+
+    return roots.contains(top);
+  }
+
+  private void forget(BaseNode root) {
+    Deque<BaseNode> stack = new ArrayDeque<>();
+    stack.push(root);
+    while (!stack.isEmpty()) {
+      BaseNode node = stack.pop();
+      recorded.remove(node);
+      changed.remove(node);
+      if (node.getHistory() == this) {
+        node.setHistory(null);
+      }
+
+      for (BaseNode child : node.getChildren()) {
+        // Children that moved on to another parent are left alone
+        if (child.getParent() == node) {
+          stack.push(child);
+        }
+      }
+    }
+  }
+
+  private void checkNotTracked(BaseNode node) {
+    DocumentHistory other = node.getHistory();
+    if (other != null && other != this) {
+      throw new IllegalStateException("The document already has a history, close it first");
+    }
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("The history is closed");
+    }
+  }
+
+  private Node reusable(BaseNode node) {
+    return changed.contains(node) ? null : recorded.get(node);
+  }
+
+  /**
+   * Records a changed subtree, children first, reusing the nodes of the subtrees that did not
+   * change.
+   */
+  private Node record(BaseNode root) {
+    Deque<Frame> stack = new ArrayDeque<>();
+    stack.push(new Frame(root));
+    while (true) {
+      Frame frame = stack.peek();
+      if (frame.next < frame.children.length) {
+        BaseNode child = frame.node.getChildren().get(frame.next);
+        Node reused = reusable(child);
+        if (reused != null) {
+          frame.children[frame.next++] = reused;
+        } else {
+          stack.push(new Frame(child));
+        }
+        continue;
+      }
+
+      stack.pop();
+      checkNotTracked(frame.node);
+      BaseNode shell = frame.node.shallowCopy();
+      shell.freeze();
+      Node node = new Node(shell, frame.children);
+      recorded.put(frame.node, node);
+      changed.remove(frame.node);
+      frame.node.setHistory(this);
+      created++;
+
+      Frame parent = stack.peek();
+      if (parent == null) {
+        return node;
+      }
+      parent.children[parent.next++] = node;
+    }
+  }
+
+  /**
+   * A node being recorded, with the nodes of the children recorded so far.
+   */
+  private static final class Frame {
+
+    private final BaseNode node;
+    private final Node[] children;
+    private int next;
+
+    private Frame(BaseNode node) {
+      this.node = node;
+      this.children = new Node[node.getChildren().size()];
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package dk.mehmedbasic.jsonast;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * An immutable version of a document, recorded by a {@link DocumentHistory}.
+ * <br/><br/>
+ * A version shares the subtrees that did not change with the version before it, so it only takes
+ * up memory for the nodes that changed and their ancestors. The shared nodes have no parents, so a
+ * version is not selected from directly: {@link #toDocument()} builds a document of it.
+ */
+public final class DocumentVersion {
+
+  private final int number;
+  private final String label;
+  private final List<Node> roots;
+  private final int createdNodes;
+
+  DocumentVersion(int number, String label, List<Node> roots, int createdNodes) {
+    this.number = number;
+    this.label = label;
+    this.roots = List.copyOf(roots);
+    this.createdNodes = createdNodes;
+  }
+
+  /**
+   * Gets the number of the version, the first version is 0.
+   *
+   * @return the number.
+   */
+  public int getNumber() {
+    return number;
+  }
+
+  /**
+   * Gets the label given when the version was recorded.
+   *
+   * @return the label, or null.
+   */
+  public String getLabel() {
+    return label;
+  }
+
+  /**
+   * Gets the number of nodes this version did not share with the version before it.
+   *
+   * @return the count.
+   */
+  public int getCreatedNodes() {
+    return createdNodes;
+  }
+
+  /**
+   * Builds a new document with the contents of this version. The document can be changed without
+   * affecting the version.
+   *
+   * @return the document.
+   */
+  public JsonDocument toDocument() {
+    JsonDocument document = new JsonDocument();
+    Deque<Copy> stack = new ArrayDeque<>();
+    for (Node root : roots) {
+      BaseNode copy = root.shell().shallowCopy();
+      stack.push(new Copy(root, copy));
+      while (!stack.isEmpty()) {
+        Copy pair = stack.pop();
+        for (Node child : pair.node().children()) {
+          BaseNode childCopy = child.shell().shallowCopy();
+          pair.copy().addChild(childCopy);
+          stack.push(new Copy(child, childCopy));
+        }
+      }
+
+      document.addRoot(copy);
+    }
+
+    return document;
+  }
+
+  @Override
+  public String toString() {
+    return "DocumentVersion[" + number + ", " + label + "]";
+  }
+
+  /**
+   * A node of a version: a frozen copy of the node without its children, and the nodes of its
+   * children in order.
+   */
+  record Node(BaseNode shell, Node[] children) {
+  }
+
+  /**
+   * A node of the version, and the copy its children are added to.
+   */
+  private record Copy(Node node, BaseNode copy) {
+  }
+}
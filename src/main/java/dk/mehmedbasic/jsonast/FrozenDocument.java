@@ -0,0 +1,114 @@
+package dk.mehmedbasic.jsonast;
+
+import dk.mehmedbasic.jsonast.transform.Transformer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of a document, see {@link JsonDocument#freeze()}.
+ * <br/><br/>
+ * The nodes are copied when the snapshot is made, and the index of the document, which a document
+ * otherwise builds on its first selection, is built up front. Selecting never writes to the
+ * snapshot afterwards, so any number of threads can {@link #select(String)} and
+ * {@link #selectSingle(String)} at once, without locks. The selections made are ordinary
+ * {@link JsonNodes}, owned by the thread that made them.
+ * <br/><br/>
+ * Changing the snapshot or its nodes throws an {@link UnsupportedOperationException}, including
+ * transformations. The snapshot must be handed to the other threads safely, for instance through a
+ * final or volatile field, like any other object shared between threads.
+ */
+public final class FrozenDocument extends JsonDocument {
+
+  private final NodeIndex frozenIndex;
+
+  FrozenDocument(Collection<BaseNode> roots) {
+    this(copy(roots));
+  }
+
+  private FrozenDocument(Set<BaseNode> copies) {
+    super(Collections.unmodifiableSet(copies));
+    this.frozenIndex = new NodeIndex(copies);
+
+    List<BaseNode> nodes = new ArrayList<>();
+    for (BaseNode root : copies) {
+      collect(root, nodes);
+    }
+    for (BaseNode node : nodes) {
+      node.freeze();
+    }
+  }
+
+  private static Set<BaseNode> copy(Collection<BaseNode> roots) {
+    Set<BaseNode> copies = new LinkedHashSet<>();
+    for (BaseNode root : roots) {
+      copies.add(root.deepCopy());
+    }
+
+    return copies;
+  }
+
+  @Override
+  NodeIndex index() {
+    return frozenIndex;
+  }
+
+  /**
+   * A frozen document is its own snapshot.
+   *
+   * @return this.
+   */
+  @Override
+  public FrozenDocument freeze() {
+    return this;
+  }
+
+  @Override
+  public Set<BaseNode> getExclusions() {
+    return Set.of();
+  }
+
+  @Override
+  public void addRoot(BaseNode root) {
+    throw frozen();
+  }
+
+  @Override
+  public void setRoots(Set<BaseNode> roots) {
+    throw frozen();
+  }
+
+  @Override
+  public void addExclusion(BaseNode node) {
+    throw frozen();
+  }
+
+  @Override
+  public Transformer transform(String selector) {
+    throw frozen();
+  }
+
+  @Override
+  public Transformer transform() {
+    throw frozen();
+  }
+
+  private static UnsupportedOperationException frozen() {
+    return new UnsupportedOperationException("Frozen documents cannot be changed");
+  }
+
+  private static void collect(BaseNode root, List<BaseNode> nodes) {
+    Deque<BaseNode> stack = new ArrayDeque<>();
+    stack.push(root);
+    while (!stack.isEmpty()) {
+      BaseNode current = stack.pop();
+      nodes.add(current);
+      current.getChildren().forEach(stack::push);
+    }
+  }
+}
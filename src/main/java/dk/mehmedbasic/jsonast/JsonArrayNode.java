@@ -1,14 +1,13 @@
 package dk.mehmedbasic.jsonast;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
 
 /**
  * A JsonArray.
  */
 public class JsonArrayNode extends BaseNode {
 
-  private final List<BaseNode> children = new ArrayList<>();
+  private final ChildList children = new ChildList(this);
 
   @Override
   public boolean isArray() {
@@ -25,27 +24,21 @@ public class JsonArrayNode extends BaseNode {
   }
 
   @Override
-  public void addChild(BaseNode node) {
-    super.addChild(node);
-    children.add(node);
+  public void addChildren(Collection<? extends BaseNode> nodes) {
+    beforeChange();
+    children.ensureCapacity(children.size() + nodes.size());
+    super.addChildren(nodes);
   }
 
   @Override
-  public void removeNode(BaseNode node) {
-    if (children.contains(node)) {
-      children.remove(node);
-      super.removeNode(node);
-    }
+  ChildList childList() {
+    return children;
   }
 
   public int size() {
     return children.size();
   }
 
-  public List<BaseNode> getChildren() {
-    return children;
-  }
-
   @Override
   public String toString() {
     return "JsonArrayNode[" + getIdentifier() + "][" + getChildren() + "]";
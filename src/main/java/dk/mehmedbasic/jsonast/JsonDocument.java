@@ -1,12 +1,12 @@
 package dk.mehmedbasic.jsonast;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.mehmedbasic.jsonast.conversion.BaseNodeParser;
 import dk.mehmedbasic.jsonast.conversion.InlineIdsNamingStrategy;
-import dk.mehmedbasic.jsonast.conversion.JacksonConverter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
+import java.util.Set;
 
 /**
  * A json document.
@@ -15,10 +15,128 @@ import java.io.InputStream;
  */
 public class JsonDocument extends JsonNodes {
 
+  private NodeIndex index;
+
   public JsonDocument() {
     setDocument(this);
   }
 
+  /**
+   * Creates a document with the given roots, which is not recorded by an open {@link UndoLog}.
+   *
+   * @param roots the roots.
+   */
+  JsonDocument(Set<BaseNode> roots) {
+    setDocument(this);
+    super.setRoots(roots);
+  }
+
+  /**
+   * Adds a root, which an open {@link UndoLog} takes out again if it is rolled back.
+   *
+   * @param root the root to add.
+   */
+  @Override
+  public void addRoot(BaseNode root) {
+    Set<BaseNode> roots = getRoots();
+    int before = roots.size();
+    super.addRoot(root);
+
+    UndoLog log = UndoLog.active();
+    if (log != null && roots.size() > before) {
+      log.record(() -> roots.remove(root));
+    }
+  }
+
+  /**
+   * Replaces the roots, which an open {@link UndoLog} puts back if it is rolled back.
+   *
+   * @param roots the new roots.
+   */
+  @Override
+  public void setRoots(Set<BaseNode> roots) {
+    UndoLog log = UndoLog.active();
+    if (log != null) {
+      Set<BaseNode> before = getRoots();
+      log.record(() -> super.setRoots(before));
+    }
+
+    super.setRoots(roots);
+  }
+
+  /**
+   * Finds nodes by name, using the document index.
+   *
+   * @param name the name to look for.
+   * @return the resulting subtree.
+   */
+  @Override
+  public JsonNodes findByName(String name) {
+    if (name == null || !getExclusions().isEmpty()) {
+      return super.findByName(name);
+    }
+
+    return indexed(index().findByName(name));
+  }
+
+  /**
+   * Finds nodes by class, using the document index.
+   *
+   * @param className the class to look for.
+   * @return the resulting subtree.
+   */
+  @Override
+  public JsonNodes findByClass(String className) {
+    if (!getExclusions().isEmpty()) {
+      return super.findByClass(className);
+    }
+
+    return indexed(index().findByClass(className));
+  }
+
+  /**
+   * Finds nodes by id, using the document index.
+   *
+   * @param id the id to look for.
+   * @return the resulting subtree.
+   */
+  @Override
+  public JsonNodes findById(String id) {
+    if (!getExclusions().isEmpty()) {
+      return super.findById(id);
+    }
+
+    return indexed(index().findById(id));
+  }
+
+  /**
+   * Creates an immutable snapshot of this document, which any number of threads can select from
+   * at once. Later changes to this document do not show in the snapshot.
+   *
+   * @return the snapshot.
+   */
+  public FrozenDocument freeze() {
+    return new FrozenDocument(getRoots());
+  }
+
+  /**
+   * Gets the index of the nodes in this document. It is built on first use, and again when the
+   * roots change.
+   */
+  NodeIndex index() {
+    if (index == null || !index.covers(getRoots())) {
+      index = new NodeIndex(getRoots());
+    }
+
+    return index;
+  }
+
+  private JsonNodes indexed(List<BaseNode> nodes) {
+    JsonNodes result = new JsonNodes(this);
+    result.getRoots().addAll(nodes);
+    return result;
+  }
+
   /**
    * Creates a value node.
    *
@@ -95,8 +213,7 @@ public class JsonDocument extends JsonNodes {
    * @return the resulting JsonDocument.
    */
   public static JsonDocument parse(InputStream inputStream) throws IOException {
-    JsonNode node = new ObjectMapper().readTree(inputStream);
-    return JacksonConverter.asTransformable(node, new InlineIdsNamingStrategy());
+    return new BaseNodeParser(new InlineIdsNamingStrategy()).parse(inputStream);
   }
 
   /**
@@ -106,7 +223,6 @@ public class JsonDocument extends JsonNodes {
    * @return the resulting JsonDocument.
    */
   public static JsonDocument parse(String content) throws JsonProcessingException {
-    JsonNode node = new ObjectMapper().readTree(content);
-    return JacksonConverter.asTransformable(node, new InlineIdsNamingStrategy());
+    return new BaseNodeParser(new InlineIdsNamingStrategy()).parse(content);
   }
 }
@@ -1,16 +1,35 @@
 package dk.mehmedbasic.jsonast;
 
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
 
 /**
  * A small identifier class for aiding in CSS query calculation.
+ * <br/><br/>
+ * The built-in classes given to nodes by the converters are kept in a bitmask, other classes are
+ * kept in a set that is only created when needed.
  */
 public class JsonIdentifier {
 
-  private final Set<String> classes = new LinkedHashSet<>();
+  /**
+   * The built-in classes, the index of a class is its bit in the mask.
+   */
+  private static final String[] BUILT_IN_CLASSES = {
+      "object", "array", "sysclass_version", "value", "boolean", "int", "string", "double",
+      "sysclass_partitioned", "long", "decimal"
+  };
+
+  private int builtInClasses;
+  private Set<String> customClasses;
   private String name;
   private String id;
+  private BaseNode owner;
 
   public JsonIdentifier() {
   }
@@ -19,6 +38,33 @@ public class JsonIdentifier {
     this.name = name;
   }
 
+  /**
+   * Gets the mask bit of a built-in class.
+   *
+   * @param className the name of the class.
+   * @return the bit of the class, or 0 if the class is not built-in.
+   */
+  public static int classBit(String className) {
+    if (className == null) {
+      return 0;
+    }
+
+    return switch (className) {
+      case "object" -> 1;
+      case "array" -> 1 << 1;
+      case "sysclass_version" -> 1 << 2;
+      case "value" -> 1 << 3;
+      case "boolean" -> 1 << 4;
+      case "int" -> 1 << 5;
+      case "string" -> 1 << 6;
+      case "double" -> 1 << 7;
+      case "sysclass_partitioned" -> 1 << 8;
+      case "long" -> 1 << 9;
+      case "decimal" -> 1 << 10;
+      default -> 0;
+    };
+  }
+
   @Override
   public String toString() {
     return "Identifier[" + getName() + ", #" + getId() + ", classes: " + getClasses() + "]";
@@ -29,7 +75,17 @@ public class JsonIdentifier {
   }
 
   public void setName(String name) {
+    beforeChange();
+    String from = pathBeforeRename();
+    String oldName = this.name;
     this.name = name;
+
+    NodeIndex index = activeIndex();
+    if (index != null) {
+      index.nameChanged(owner, oldName, name);
+    }
+    nameChanged(oldName);
+    renamed(from);
   }
 
   public String getId() {
@@ -37,14 +93,259 @@ public class JsonIdentifier {
   }
 
   public void setId(String id) {
+    beforeChange();
+    String from = pathBeforeRename();
+    String oldId = this.id;
     this.id = id;
+
+    NodeIndex index = activeIndex();
+    if (index != null) {
+      index.idChanged(owner, oldId, id);
+    }
+    renamed(from);
+  }
+
+  /**
+   * Copies the name, id and classes, the copy has no owner.
+   *
+   * @return the copy.
+   */
+  JsonIdentifier copy() {
+    JsonIdentifier copy = new JsonIdentifier(name);
+    copy.id = id;
+    copy.builtInClasses = builtInClasses;
+    if (customClasses != null) {
+      copy.customClasses = new LinkedHashSet<>(customClasses);
+    }
+
+    return copy;
+  }
+
+  /**
+   * Puts back the name, id and classes of a copy, for the {@link UndoLog}.
+   *
+   * @param source the copy.
+   */
+  void restore(JsonIdentifier source) {
+    NodeIndex index = activeIndex();
+    if (index != null) {
+      index.remove(owner);
+    }
+
+    String oldName = name;
+    name = source.name;
+    id = source.id;
+    builtInClasses = source.builtInClasses;
+    customClasses = source.customClasses == null ? null : new LinkedHashSet<>(source.customClasses);
+
+    if (index != null) {
+      index.add(owner);
+    }
+    nameChanged(oldName);
+  }
+
+  /**
+   * Sets the node this identifier belongs to, so changes can be reported to its document index.
+   */
+  void setOwner(BaseNode owner) {
+    this.owner = owner;
+  }
+
+  private void beforeChange() {
+    if (owner != null) {
+      owner.beforeChange();
+    }
+  }
+
+  /**
+   * Gets the path of the owner for the {@link JsonPatchRecorder}, as the name and id are part of
+   * it.
+   */
+  private String pathBeforeRename() {
+    JsonPatchRecorder recorder = owner == null ? null : JsonPatchRecorder.active();
+    return recorder == null ? null : recorder.pathOf(owner);
+  }
+
+  /**
+   * Tells the parent of the owner about a new name, so an object can keep its children by name.
+   */
+  private void nameChanged(String oldName) {
+    BaseNode parent = owner == null ? null : owner.getParent();
+    if (parent != null && !Objects.equals(oldName, name)) {
+      parent.childRenamed(owner, oldName);
+    }
   }
 
+  private void renamed(String from) {
+    JsonPatchRecorder recorder = from == null ? null : JsonPatchRecorder.active();
+    if (recorder != null) {
+      recorder.renamed(owner, from);
+    }
+  }
+
+  private NodeIndex activeIndex() {
+    return owner == null ? null : owner.activeIndex();
+  }
+
+  /**
+   * Gets a live view of the classes. Built-in classes come first, then other classes in the order
+   * they were added.
+   *
+   * @return the classes.
+   */
   public Set<String> getClasses() {
-    return classes;
+    return new ClassSet();
   }
 
   public void addClass(String value) {
-    getClasses().add(value);
+    beforeChange();
+    int bit = classBit(value);
+    boolean added;
+    if (bit != 0) {
+      added = (builtInClasses & bit) == 0;
+      builtInClasses |= bit;
+    } else {
+      if (customClasses == null) {
+        customClasses = new LinkedHashSet<>(2);
+      }
+
+      added = customClasses.add(value);
+    }
+
+    NodeIndex index = activeIndex();
+    if (added && index != null) {
+      index.classAdded(owner, value);
+    }
+  }
+
+  /**
+   * Removes a class.
+   *
+   * @param value the class to remove.
+   * @return true if the class was present.
+   */
+  public boolean removeClass(String value) {
+    beforeChange();
+    int bit = classBit(value);
+    boolean present;
+    if (bit != 0) {
+      present = (builtInClasses & bit) != 0;
+      builtInClasses &= ~bit;
+    } else {
+      present = customClasses != null && customClasses.remove(value);
+    }
+
+    NodeIndex index = activeIndex();
+    if (present && index != null) {
+      index.classRemoved(owner, value);
+    }
+
+    return present;
+  }
+
+  /**
+   * Whether this identifier has the given class.
+   *
+   * @param value the class in question.
+   * @return true or false.
+   */
+  public boolean hasClass(String value) {
+    int bit = classBit(value);
+    if (bit != 0) {
+      return hasClassBits(bit);
+    }
+
+    return customClasses != null && customClasses.contains(value);
+  }
+
+  /**
+   * Whether this identifier has all the built-in classes in the given mask.
+   *
+   * @param mask the mask, see {@link #classBit(String)}.
+   * @return true or false.
+   */
+  public boolean hasClassBits(int mask) {
+    return (builtInClasses & mask) == mask;
+  }
+
+  private List<String> classList() {
+    List<String> result = new ArrayList<>(Integer.bitCount(builtInClasses) + customCount());
+    for (int i = 0; i < BUILT_IN_CLASSES.length; i++) {
+      if ((builtInClasses & (1 << i)) != 0) {
+        result.add(BUILT_IN_CLASSES[i]);
+      }
+    }
+
+    if (customClasses != null) {
+      result.addAll(customClasses);
+    }
+
+    return result;
+  }
+
+  private int customCount() {
+    return customClasses == null ? 0 : customClasses.size();
+  }
+
+  /**
+   * The set view returned by {@link #getClasses()}.
+   */
+  private final class ClassSet extends AbstractSet<String> {
+
+    @Override
+    public Iterator<String> iterator() {
+      List<String> snapshot = classList();
+      return new Iterator<>() {
+        private int index;
+
+        @Override
+        public boolean hasNext() {
+          return index < snapshot.size();
+        }
+
+        @Override
+        public String next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+
+          return snapshot.get(index++);
+        }
+
+        @Override
+        public void remove() {
+          if (index == 0) {
+            throw new IllegalStateException();
+          }
+
+          removeClass(snapshot.get(index - 1));
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return Integer.bitCount(builtInClasses) + customCount();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return (o == null || o instanceof String) && hasClass((String) o);
+    }
+
+    @Override
+    public boolean add(String value) {
+      if (hasClass(value)) {
+        return false;
+      }
+
+      addClass(value);
+      return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+      return (o == null || o instanceof String) && removeClass((String) o);
+    }
   }
 }
@@ -2,20 +2,19 @@ package dk.mehmedbasic.jsonast;
 
 import dk.mehmedbasic.jsonast.selector.InFilter;
 import dk.mehmedbasic.jsonast.selector.JsonSelectionEngine;
+import dk.mehmedbasic.jsonast.selector.NodeClassFilter;
 import dk.mehmedbasic.jsonast.selector.NodeFilter;
+import dk.mehmedbasic.jsonast.selector.NodeIdFilter;
 import dk.mehmedbasic.jsonast.selector.NodeNameFilter;
 import dk.mehmedbasic.jsonast.transform.CachingJsonNodes;
 import dk.mehmedbasic.jsonast.transform.Transformer;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A collection of BaseNode objects in a selectable form.
@@ -30,13 +29,15 @@ public class JsonNodes implements Iterable<BaseNode> {
   private Set<BaseNode> roots = new LinkedHashSet<>(5_000, 1f);
   private final Set<BaseNode> exclusions = new LinkedHashSet<>(1000, 1f);
   private JsonDocument document;
+  private ForkJoinPool pool;
 
   public JsonNodes() {
   }
 
-  private JsonNodes(JsonNodes parent) {
+  JsonNodes(JsonNodes parent) {
     if (parent != null) {
       document = parent.getDocument();
+      pool = parent.pool;
     }
   }
 
@@ -53,13 +54,16 @@ public class JsonNodes implements Iterable<BaseNode> {
       return nodes;
     }
 
-    JsonSelectionEngine engine;
-    try {
-      engine = new JsonSelectionEngine(selector);
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+    return selectCompiled(JsonSelectionEngine.compile(selector));
+  }
 
+  /**
+   * Selects a subtree given a compiled selector.
+   *
+   * @param engine the compiled selector, see {@link JsonSelectionEngine#compile(String)}.
+   * @return a subtree containing the selected nodes.
+   */
+  public JsonNodes selectCompiled(JsonSelectionEngine engine) {
     return engine.execute(this);
   }
 
@@ -97,6 +101,26 @@ public class JsonNodes implements Iterable<BaseNode> {
     }
   }
 
+  /**
+   * Finds nodes by class.
+   *
+   * @param className the class to look for.
+   * @return the resulting subtree.
+   */
+  public JsonNodes findByClass(String className) {
+    return filter(new NodeClassFilter(className));
+  }
+
+  /**
+   * Finds nodes by id.
+   *
+   * @param id the id to look for.
+   * @return the resulting subtree.
+   */
+  public JsonNodes findById(String id) {
+    return filter(new NodeIdFilter(id));
+  }
+
   /**
    * Adds a root to the subtree.
    *
@@ -176,6 +200,23 @@ public class JsonNodes implements Iterable<BaseNode> {
     return result;
   }
 
+  /**
+   * Keeps the roots that pass the given filter, without looking at their subtrees.
+   *
+   * @param filter the filter to apply.
+   * @return the roots that passed.
+   */
+  public JsonNodes filterRoots(NodeFilter filter) {
+    JsonNodes result = new JsonNodes(this);
+    for (BaseNode node : roots) {
+      if (filter.apply(node, null)) {
+        result.addRoot(node);
+      }
+    }
+
+    return result;
+  }
+
   /**
    * Begins a transformation builder.
    *
@@ -204,21 +245,24 @@ public class JsonNodes implements Iterable<BaseNode> {
    * @return the list of distances.
    */
   public List<NodeDistance> closestTo(BaseNode node) {
-    List<NodeDistance> distance = roots.stream().filter(n -> n != node)
-        .map(that -> new NodeDistance(that, node.distanceTo(that)))
-        .collect(Collectors.toCollection(ArrayList::new));
-
-    if (distance.isEmpty()) {
-      return Collections.emptyList();
-    } else if (distance.size() == 1) {
-      return distance;
-    }
+    List<NodeDistance> closest = new ArrayList<>(1);
+    int shortestDistance = Integer.MAX_VALUE;
+    for (BaseNode that : roots) {
+      if (that == node) {
+        continue;
+      }
 
-    distance.sort(Comparator.comparing(NodeDistance::distance));
+      int distance = node.distanceTo(that);
+      if (distance < shortestDistance) {
+        shortestDistance = distance;
+        closest.clear();
+      }
+      if (distance == shortestDistance) {
+        closest.add(new NodeDistance(that, distance));
+      }
+    }
 
-    final int shortestDistance = distance.get(0).distance();
-    return distance.stream().filter(t -> t.distance() == shortestDistance)
-        .collect(Collectors.toList());
+    return closest;
   }
 
   /**
@@ -250,6 +294,42 @@ public class JsonNodes implements Iterable<BaseNode> {
     exclusions.add(node);
   }
 
+  /**
+   * Gets a copy of the roots that filters in parallel on the common fork-join pool.
+   *
+   * @return the parallel copy.
+   * @see #parallel(ForkJoinPool)
+   */
+  public JsonNodes parallel() {
+    return parallel(ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Gets a copy of the roots and exclusions that filters in parallel on the given pool.
+   * <br/><br/>
+   * Filtering splits wide objects and arrays into fork-join tasks, and the results come back in
+   * document order as usual. Selections made from the copy are parallel as well. The filters must
+   * be safe to call from several threads, and the tree must not change while a filter runs.
+   *
+   * @param pool the pool to run the tasks in.
+   * @return the parallel copy.
+   */
+  public JsonNodes parallel(ForkJoinPool pool) {
+    JsonNodes nodes = select(null);
+    nodes.exclusions.addAll(exclusions);
+    nodes.pool = pool;
+    return nodes;
+  }
+
+  /**
+   * Whether filtering runs in parallel, see {@link #parallel(ForkJoinPool)}.
+   *
+   * @return true if parallel.
+   */
+  public boolean isParallel() {
+    return pool != null;
+  }
+
   /**
    * Recursively traverse the node and collect all nodes that pass the filter into the destination
    * set.
@@ -261,7 +341,9 @@ public class JsonNodes implements Iterable<BaseNode> {
       return;
     }
 
-    if (node.isArray()) {
+    if (pool != null) {
+      destination.addAll(pool.invoke(new ParallelCollector(node, filter, exclusions)));
+    } else if (node.isArray()) {
       JsonArrayNode arrayNode = (JsonArrayNode) node;
 
       List<BaseNode> children = arrayNode.getChildren();
@@ -299,7 +381,9 @@ public class JsonNodes implements Iterable<BaseNode> {
    * Returns a new JsonNodes instance that has caching enabled.
    *
    * @return the cached nodes.
+   * @deprecated select on the document instead, it keeps an index of its nodes up to date.
    */
+  @Deprecated
   public CachingJsonNodes withCaching() {
     CachingJsonNodes nodes = new CachingJsonNodes();
     nodes.setRoots(new LinkedHashSet<>(roots));
@@ -1,28 +1,88 @@
 package dk.mehmedbasic.jsonast;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * A Json object node.
+ * <br/><br/>
+ * Children are kept in insertion order. Once the object is wide enough, lookups by name go
+ * through a name to node index. The index is built as soon as the object is wide enough, and is
+ * kept up to date when children are added, removed or renamed, so a lookup never changes the
+ * object and objects can be read from several threads at once.
  */
 public class JsonObjectNode extends BaseNode {
 
-    private final List<BaseNode> children = new ArrayList<>();
+    /**
+     * The number of children from which lookups by name use the index instead of a scan.
+     */
+    static final int INDEX_THRESHOLD = 8;
+
+    private final ChildList children = new ChildList(this);
+
+    /**
+     * Maps a name to the first child with that name, null while the object is narrow.
+     */
+    private Map<String, BaseNode> index;
+    /**
+     * Whether the index was built while two children shared a name.
+     */
+    private boolean duplicateNames;
 
     public JsonObjectNode() {
     }
 
+    /**
+     * Gets the first child with the given name.
+     * <br/><br/>
+     * A child that was added to this object without leaving another parent is found by the name
+     * it had when added.
+     *
+     * @param name the name of the child.
+     * @return the child or null.
+     */
     @Override
     public BaseNode get(final String name) {
-        return children.stream().filter(it -> it.getIdentifier().getName().equals(name))
-            .findAny().orElse(null);
+        if (index != null) {
+            BaseNode hit = index.get(name);
+            if (hit == null || Objects.equals(hit.getIdentifier().getName(), name)) {
+                return hit;
+            }
+            // A shared child renamed through its other parent, fall back to a scan
+        }
+
+        for (BaseNode child : children) {
+            if (Objects.equals(child.getIdentifier().getName(), name)) {
+                return child;
+            }
+        }
+
+        return null;
     }
 
     @Override
     public void addChild(BaseNode node) {
+        UndoLog log = UndoLog.active();
+        if (log != null) {
+            // Undone after the child list, which is recorded later
+            log.record(() -> {
+                if (!isFrozen()) {
+                    unindex(node, node.getIdentifier().getName());
+                }
+            });
+        }
+
         super.addChild(node);
-        children.add(node);
+
+        if (index == null) {
+            if (children.size() >= INDEX_THRESHOLD) {
+                buildIndex();
+            }
+        } else if (index.putIfAbsent(node.getIdentifier().getName(), node) != null) {
+            duplicateNames = true;
+        }
     }
 
     @Override
@@ -41,19 +101,98 @@ public class JsonObjectNode extends BaseNode {
 
     @Override
     public void removeNode(BaseNode node) {
-        if (children.contains(node)) {
-            children.remove(node);
-            super.removeNode(node);
-            node.setParent(null);
+        UndoLog log = UndoLog.active();
+        if (log != null) {
+            // Undone after the child list, which is recorded later
+            log.record(() -> {
+                if (!isFrozen() && index != null && children.contains(node)) {
+                    indexChild(node);
+                }
+            });
         }
+
+        super.removeNode(node);
+
+        unindex(node, node.getIdentifier().getName());
     }
 
     @Override
-    public String toString() {
-        return "JsonObjectNode[" + getIdentifier() + "]{" + getChildren() + "}";
+    public void addChildren(Collection<? extends BaseNode> nodes) {
+        beforeChange();
+        children.ensureCapacity(children.size() + nodes.size());
+        super.addChildren(nodes);
+    }
+
+    @Override
+    void childRenamed(BaseNode child, String oldName) {
+        if (index == null) {
+            return;
+        }
+
+        unindex(child, oldName);
+        indexChild(child);
+    }
+
+    @Override
+    void childReturned(BaseNode child) {
+        if (index == null) {
+            return;
+        }
+
+        if (duplicateNames) {
+            buildIndex();
+        } else {
+            // The child may be in the index by a name it no longer has
+            index.values().removeIf(node -> node == child);
+            indexChild(child);
+        }
+    }
+
+    /**
+     * Puts a child in the index, where it wins over a child with the same name after it.
+     */
+    private void indexChild(BaseNode child) {
+        String name = child.getIdentifier().getName();
+        BaseNode other = index.get(name);
+        if (other == null) {
+            index.put(name, child);
+        } else if (other != child) {
+            // Another child has the name, the first one in order must win
+            duplicateNames = true;
+            if (children.slotOf(child) < children.slotOf(other)) {
+                index.put(name, child);
+            }
+        }
+    }
+
+    private void unindex(BaseNode node, String name) {
+        if (index != null && index.get(name) == node) {
+            if (duplicateNames) {
+                // Another child may have the same name
+                buildIndex();
+            } else {
+                index.remove(name);
+            }
+        }
     }
 
-    public List<BaseNode> getChildren() {
+    @Override
+    ChildList childList() {
         return children;
     }
+
+    private void buildIndex() {
+        index = new HashMap<>(children.size() * 2);
+        duplicateNames = false;
+        for (BaseNode child : children) {
+            if (index.putIfAbsent(child.getIdentifier().getName(), child) != null) {
+                duplicateNames = true;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JsonObjectNode[" + getIdentifier() + "]{" + getChildren() + "}";
+    }
 }
@@ -0,0 +1,335 @@
+package dk.mehmedbasic.jsonast;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import dk.mehmedbasic.jsonast.conversion.BaseNodeWriter;
+import dk.mehmedbasic.jsonast.conversion.ConversionNamingStrategy;
+import dk.mehmedbasic.jsonast.conversion.DefaultNamingStrategy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the changes made to a document as a JSON Patch (RFC 6902), so only the changes need to be
+ * sent instead of the whole document.
+ * <br/><br/>
+ * While the recorder is open, every change the current thread makes to the nodes of the document
+ * becomes an operation, with the paths the nodes have at that moment. Adding a node is an
+ * {@code add} with the node as its value, removing one is a {@code remove}, renaming a child of an
+ * object or moving a node with {@link BaseNode#changeParent(BaseNode)} is a {@code move}, and
+ * setting a value, or renaming an object in an array, is a {@code replace}. Applied in order to
+ * the document as it was written before, the operations give the document as it is written
+ * afterwards.
+ * <br/><br/>
+ * Names are written with the naming strategy given, like the {@link BaseNodeWriter} writes them,
+ * and only the first root of the document is recorded, as that is the one written. A JSON Pointer
+ * cannot tell two children of an object with the same name apart, so the patch only matches for
+ * documents without duplicate names. Changes undone by an {@link UndoLog} are taken out of the
+ * patch again.
+ */
+public final class JsonPatchRecorder {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final ThreadLocal<JsonPatchRecorder> CURRENT = new ThreadLocal<>();
+  /**
+   * The number of open recorders on all threads, so changes made while none are open skip the
+   * lookup.
+   */
+  private static final AtomicInteger OPEN = new AtomicInteger();
+
+  private final JsonDocument document;
+  private final ConversionNamingStrategy strategy;
+  private final BaseNodeWriter writer;
+  private final List<ObjectNode> operations = new ArrayList<>();
+  /**
+   * Greater than zero while a change is recorded as a whole, so its parts are not recorded.
+   */
+  private int paused;
+  private boolean closed;
+
+  private JsonPatchRecorder(JsonDocument document, ConversionNamingStrategy strategy) {
+    this.document = document;
+    this.strategy = Objects.requireNonNullElseGet(strategy, DefaultNamingStrategy::new);
+    this.writer = new BaseNodeWriter(this.strategy);
+  }
+
+  /**
+   * Starts recording the changes made to the document on the current thread.
+   *
+   * @param document the document.
+   * @param strategy the naming strategy the document is written with, null for the default.
+   * @return the recorder, which must be ended on this thread.
+   * @throws IllegalStateException if a recorder is already open on this thread.
+   */
+  public static JsonPatchRecorder begin(JsonDocument document, ConversionNamingStrategy strategy) {
+    if (CURRENT.get() != null) {
+      throw new IllegalStateException("A patch is already being recorded on this thread");
+    }
+
+    JsonPatchRecorder recorder = new JsonPatchRecorder(document, strategy);
+    CURRENT.set(recorder);
+    OPEN.incrementAndGet();
+    return recorder;
+  }
+
+  /**
+   * Runs a step and records the changes it makes to the document.
+   *
+   * @param document the document.
+   * @param strategy the naming strategy the document is written with, null for the default.
+   * @param step the step, for instance a transformer being applied.
+   * @return the patch.
+   */
+  public static ArrayNode record(JsonDocument document, ConversionNamingStrategy strategy,
+      Runnable step) {
+    JsonPatchRecorder recorder = begin(document, strategy);
+    try {
+      step.run();
+    } finally {
+      recorder.end();
+    }
+
+    return recorder.getPatch();
+  }
+
+  /**
+   * Stops recording.
+   *
+   * @return the patch.
+   */
+  public ArrayNode end() {
+    if (closed) {
+      throw new IllegalStateException("The recorder is already ended");
+    }
+    if (CURRENT.get() != this) {
+      throw new IllegalStateException("Recorders must be ended on their thread");
+    }
+
+    closed = true;
+    OPEN.decrementAndGet();
+    CURRENT.remove();
+    return getPatch();
+  }
+
+  /**
+   * Gets the operations recorded so far.
+   *
+   * @return the patch, a new array.
+   */
+  public ArrayNode getPatch() {
+    ArrayNode patch = JsonNodeFactory.instance.arrayNode(operations.size());
+    for (ObjectNode operation : operations) {
+      patch.add(operation.deepCopy());
+    }
+
+    return patch;
+  }
+
+  /**
+   * Gets the number of operations recorded so far.
+   *
+   * @return the count.
+   */
+  public int size() {
+    return operations.size();
+  }
+
+  /**
+   * Gets the recorder open on this thread.
+   *
+   * @return the recorder, or null.
+   */
+  static JsonPatchRecorder current() {
+    return OPEN.get() == 0 ? null : CURRENT.get();
+  }
+
+  /**
+   * Gets the recorder that changes on this thread must be recorded with.
+   *
+   * @return the recorder, or null if changes are not being recorded.
+   */
+  static JsonPatchRecorder active() {
+    JsonPatchRecorder recorder = current();
+    return recorder == null || recorder.paused > 0 ? null : recorder;
+  }
+
+  /**
+   * Records a child added to a parent.
+   */
+  void added(BaseNode parent, BaseNode child) {
+    String parentPath = pathOf(parent);
+    if (parentPath != null) {
+      add("add", targetPath(parentPath, parent, child), null, valueOf(parent, child));
+    }
+  }
+
+  /**
+   * Records a child about to be removed from its parent.
+   */
+  void removing(BaseNode parent, BaseNode child) {
+    if (child.getParent() == parent) {
+      String path = pathOf(child);
+      if (path != null) {
+        add("remove", path, null, null);
+      }
+    }
+  }
+
+  /**
+   * Records a node whose name or id changed, which moves it if its parent is an object. An object
+   * in an array keeps its path, but the naming strategy may write its name or id as pairs of the
+   * object, so it is replaced as a whole.
+   *
+   * @param node the node.
+   * @param from the path of the node before the change.
+   */
+  void renamed(BaseNode node, String from) {
+    String path = pathOf(node);
+    if (from == null || path == null) {
+      return;
+    }
+
+    BaseNode parent = node.getParent();
+    if (!from.equals(path)) {
+      add("move", path, from, null);
+    } else if (parent.isArray() && node.isObject()) {
+      add("replace", path, null, valueOf(parent, node));
+    }
+  }
+
+  /**
+   * Records a value that was set.
+   */
+  void replaced(JsonValueNode node) {
+    String path = pathOf(node);
+    if (path != null) {
+      add("replace", path, null, valueOf(node.getParent(), node));
+    }
+  }
+
+  /**
+   * Makes a change that moves a node, and records it as one operation.
+   *
+   * @param node the node that moves.
+   * @param change the change.
+   */
+  void move(BaseNode node, Runnable change) {
+    String from = pathOf(node);
+    paused++;
+    try {
+      change.run();
+    } finally {
+      paused--;
+    }
+
+    BaseNode parent = node.getParent();
+    String parentPath = parent == null ? null : pathOf(parent);
+    if (parentPath == null) {
+      if (from != null) {
+        add("remove", from, null, null);
+      }
+    } else if (from == null) {
+      add("add", targetPath(parentPath, parent, node), null, valueOf(parent, node));
+    } else {
+      add("move", targetPath(parentPath, parent, node), from, null);
+    }
+  }
+
+  /**
+   * Takes out the operations recorded after the given count, for the {@link UndoLog}.
+   */
+  void truncate(int size) {
+    operations.subList(Math.min(size, operations.size()), operations.size()).clear();
+  }
+
+  /**
+   * Gets the JSON Pointer of a node.
+   *
+   * @return the pointer, or null if the node is not in the part of the document that is written.
+   * @throws IllegalStateException if the node is its own ancestor.
+   */
+  String pathOf(BaseNode node) {
+    List<String> tokens = new ArrayList<>();
+    BaseNode current = node;
+    // Follows the parents at half the speed, to catch a node moved into itself
+    BaseNode slow = node;
+    while (current.getParent() != null) {
+      BaseNode parent = current.getParent();
+      if (parent.isArray()) {
+        int index = parent.childList().indexOf(current);
+        if (index < 0) {
+          return null;
+        }
+        tokens.add(Integer.toString(index));
+      } else {
+        tokens.add(escape(strategy.toJacksonName(current)));
+      }
+
+      current = parent;
+      if ((tokens.size() & 1) == 0) {
+        slow = slow.getParent();
+      }
+      if (current == slow) {
+        throw new IllegalStateException("The node is its own ancestor: " + node.getIdentifier());
+      }
+    }
+
+    if (document.isEmpty() || document.getRoots().iterator().next() != current) {
+      return null;
+    }
+
+    StringBuilder path = new StringBuilder();
+    for (int i = tokens.size() - 1; i >= 0; i--) {
+      path.append('/').append(tokens.get(i));
+    }
+
+    return path.toString();
+  }
+
+  /**
+   * The path a child is added at: its name in an object, the end of an array.
+   */
+  private String targetPath(String parentPath, BaseNode parent, BaseNode child) {
+    return parentPath + "/" + (parent.isArray() ? "-" : escape(strategy.toJacksonName(child)));
+  }
+
+  private JsonNode valueOf(BaseNode parent, BaseNode node) {
+    TokenBuffer buffer = new TokenBuffer(MAPPER, false);
+    try {
+      if (parent != null && parent.isArray()) {
+        writer.writeElement(node, buffer);
+      } else {
+        writer.write(node, buffer);
+      }
+
+      return MAPPER.readTree(buffer.asParser());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void add(String op, String path, String from, JsonNode value) {
+    ObjectNode operation = JsonNodeFactory.instance.objectNode();
+    operation.put("op", op);
+    if (from != null) {
+      operation.put("from", from);
+    }
+    operation.put("path", path);
+    if (value != null) {
+      operation.set("value", value);
+    }
+
+    operations.add(operation);
+  }
+
+  private static String escape(String name) {
+    return String.valueOf(name).replace("~", "~0").replace("/", "~1");
+  }
+}
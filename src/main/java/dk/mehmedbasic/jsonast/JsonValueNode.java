@@ -1,74 +1,267 @@
 package dk.mehmedbasic.jsonast;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
 /**
  * A Json value
+ * <br/><br/>
+ * Numbers and booleans are stored unboxed, next to a tag with the type of the value. The type
+ * changes with the value, so manipulations can turn a string into a number and back.
  */
 public class JsonValueNode extends BaseNode {
 
-  private Object value;
+  /**
+   * The type of the value stored in a value node.
+   */
+  public enum ValueType {
+    Null, Boolean, Int, Long, Double, BigDecimal, String
+  }
+
+  private ValueType type = ValueType.Null;
+  /**
+   * Holds int, long and boolean values as is, and doubles as their raw long bits.
+   */
+  private long bits;
+  /**
+   * Holds string and BigDecimal values.
+   */
+  private Object reference;
 
   public JsonValueNode(Object value) {
-    this.value = value;
+    setRawValue(value);
   }
 
   public void setValue(String value) {
-    this.value = value;
+    if (value == null) {
+      setNull();
+    } else {
+      set(ValueType.String, 0, value);
+    }
   }
 
   public void setValue(int value) {
-    this.value = value;
+    set(ValueType.Int, value, null);
+  }
+
+  public void setValue(long value) {
+    set(ValueType.Long, value, null);
   }
 
   public void setValue(double value) {
-    this.value = value;
+    set(ValueType.Double, Double.doubleToRawLongBits(value), null);
   }
 
   public void setValue(boolean value) {
-    this.value = value;
+    set(ValueType.Boolean, value ? 1 : 0, null);
   }
 
+  public void setValue(BigDecimal value) {
+    if (value == null) {
+      setNull();
+    } else {
+      set(ValueType.BigDecimal, 0, value);
+    }
+  }
+
+  public void setNull() {
+    set(ValueType.Null, 0, null);
+  }
+
+  /**
+   * Sets a boxed value. Other number types are widened to the closest stored type, and character
+   * sequences are stored as strings.
+   *
+   * @param value the value.
+   * @throws IllegalArgumentException if the value cannot be represented in JSON.
+   */
   public void setRawValue(Object value) {
-    this.value = value;
+    if (value == null) {
+      setNull();
+    } else if (value instanceof String string) {
+      setValue(string);
+    } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      setValue(((Number) value).intValue());
+    } else if (value instanceof Long longValue) {
+      setValue(longValue.longValue());
+    } else if (value instanceof Double || value instanceof Float) {
+      setValue(((Number) value).doubleValue());
+    } else if (value instanceof Boolean booleanValue) {
+      setValue(booleanValue.booleanValue());
+    } else if (value instanceof BigDecimal decimal) {
+      setValue(decimal);
+    } else if (value instanceof BigInteger integer) {
+      setValue(new BigDecimal(integer));
+    } else if (value instanceof CharSequence || value instanceof Character) {
+      setValue(value.toString());
+    } else {
+      throw new IllegalArgumentException("Unsupported value type: " + value.getClass());
+    }
   }
 
+  private void set(ValueType type, long bits, Object reference) {
+    beforeChange();
+    this.type = type;
+    this.bits = bits;
+    this.reference = reference;
+
+    JsonPatchRecorder recorder = JsonPatchRecorder.active();
+    if (recorder != null) {
+      recorder.replaced(this);
+    }
+  }
+
+  /**
+   * Copies the value of the given node, without boxing it.
+   *
+   * @param source the node to copy from.
+   */
+  void copyValue(JsonValueNode source) {
+    set(source.type, source.bits, source.reference);
+  }
+
+  /**
+   * Gets the value boxed, prefer the typed accessors.
+   *
+   * @return the value or null.
+   */
   public Object getValue() {
-    return value;
+    return switch (type) {
+      case Null -> null;
+      case Boolean -> bits != 0;
+      case Int -> (int) bits;
+      case Long -> bits;
+      case Double -> Double.longBitsToDouble(bits);
+      case BigDecimal, String -> reference;
+    };
+  }
+
+  public ValueType getValueType() {
+    return type;
   }
 
   public boolean booleanValue() {
-    return (boolean) value;
+    if (type != ValueType.Boolean) {
+      throw notA("boolean");
+    }
+
+    return bits != 0;
+  }
+
+  /**
+   * Gets the value as an int, without the fraction of a decimal.
+   *
+   * @return the value.
+   * @throws ArithmeticException if the value does not fit in an int.
+   */
+  public int intValue() {
+    return switch (type) {
+      case Int -> (int) bits;
+      case Long -> Math.toIntExact(bits);
+      case Double ->
+          (int) exactly(Double.longBitsToDouble(bits), Integer.MIN_VALUE, Integer.MAX_VALUE);
+      case BigDecimal -> ((BigDecimal) reference).toBigInteger().intValueExact();
+      default -> throw notA("number");
+    };
+  }
+
+  /**
+   * Gets the value as a long, without the fraction of a decimal.
+   *
+   * @return the value.
+   * @throws ArithmeticException if the value does not fit in a long.
+   */
+  public long longValue() {
+    return switch (type) {
+      case Int, Long -> bits;
+      case Double -> exactly(Double.longBitsToDouble(bits), Long.MIN_VALUE, Long.MAX_VALUE);
+      case BigDecimal -> ((BigDecimal) reference).toBigInteger().longValueExact();
+      default -> throw notA("number");
+    };
   }
 
   public double doubleValue() {
-    return (double) value;
+    return switch (type) {
+      case Int, Long -> bits;
+      case Double -> Double.longBitsToDouble(bits);
+      case BigDecimal -> ((BigDecimal) reference).doubleValue();
+      default -> throw notA("number");
+    };
   }
 
-  public int intValue() {
-    return (int) value;
+  public BigDecimal bigDecimalValue() {
+    return switch (type) {
+      case Int, Long -> BigDecimal.valueOf(bits);
+      case Double -> BigDecimal.valueOf(Double.longBitsToDouble(bits));
+      case BigDecimal -> (BigDecimal) reference;
+      default -> throw notA("number");
+    };
   }
 
   public String stringValue() {
-    return (String) value;
+    if (type == ValueType.Null) {
+      return null;
+    } else if (type != ValueType.String) {
+      throw notA("string");
+    }
+
+    return (String) reference;
+  }
+
+  /**
+   * Drops the fraction of a double, if the rest lies within the bounds.
+   */
+  private static long exactly(double value, long min, long max) {
+    double whole = value < 0 ? Math.ceil(value) : Math.floor(value);
+    // The bounds are compared as doubles, where Long.MAX_VALUE rounds up to 2^63
+    if (Double.isNaN(whole) || whole < min || whole >= max + 1.0) {
+      throw new ArithmeticException("Out of range: " + value);
+    }
+
+    return (long) whole;
+  }
+
+  private IllegalStateException notA(String expected) {
+    return new IllegalStateException("Expected a " + expected + " value, but got: " + this);
   }
 
   @Override
   public boolean isBoolean() {
-    return value instanceof Boolean;
+    return type == ValueType.Boolean;
   }
 
   @Override
   public boolean isString() {
-    return value instanceof String;
+    return type == ValueType.String;
   }
 
   @Override
   public boolean isInt() {
-    return value instanceof Integer;
+    return type == ValueType.Int;
+  }
+
+  @Override
+  public boolean isLong() {
+    return type == ValueType.Long;
   }
 
   @Override
   public boolean isDouble() {
-    return value instanceof Double;
+    return type == ValueType.Double;
+  }
+
+  @Override
+  public boolean isBigDecimal() {
+    return type == ValueType.BigDecimal;
+  }
+
+  /**
+   * Whether this node holds a JSON null.
+   *
+   * @return true or false.
+   */
+  public boolean isNull() {
+    return type == ValueType.Null;
   }
 
   @Override
@@ -0,0 +1,384 @@
+package dk.mehmedbasic.jsonast;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * An index of the nodes in a document by name, class and id.
+ * <br/><br/>
+ * The index is built on the first lookup, and is then kept up to date by the nodes: attaching or
+ * detaching a subtree costs time proportional to the subtree, and changing a name, class or id of
+ * an identifier costs the logarithm of the nodes with that name, class or id. The roots of the
+ * document are not in the index, as roots are never selected.
+ * <br/><br/>
+ * Lookups return the nodes in document order, the same order a traversal finds them in. Every
+ * node has an entry in a linked list of the document in that order, labelled with increasing
+ * numbers, and the nodes of a name, class or id are kept sorted by their labels. A lookup costs
+ * the nodes it returns. A node attached between two others takes a label between theirs, and when
+ * there is none, the labels around it are spread out again, as in the list labelling of Bender et
+ * al., which costs a logarithm of the document per attached node on average.
+ * <br/><br/>
+ * A node added to a second parent without leaving the first belongs to the parent it points to,
+ * and is in document order there.
+ */
+final class NodeIndex {
+
+  /**
+   * The labels are taken from 0 up to this, exclusive.
+   */
+  private static final long SPACE = 1L << 62;
+  /**
+   * The gap left after the last node, so nodes appended to the end of the document are cheap.
+   */
+  private static final long APPEND_GAP = 1L << 20;
+  /**
+   * How much denser a range of labels may be than the range twice its size, before it is spread.
+   */
+  private static final double DENSITY = 1.5;
+  private static final Comparator<Entry> IN_ORDER = Comparator.comparingLong(entry -> entry.order);
+
+  private final List<BaseNode> roots;
+  private Entry last;
+
+  private final Map<String, NavigableSet<Entry>> byName = new HashMap<>();
+  private final Map<String, NavigableSet<Entry>> byClass = new HashMap<>();
+  private final Map<String, NavigableSet<Entry>> byId = new HashMap<>();
+
+  NodeIndex(Collection<BaseNode> roots) {
+    this.roots = new ArrayList<>(roots);
+    for (BaseNode root : this.roots) {
+      if (root.getIndex() != this) {
+        Entry entry = new Entry(this, root);
+        insertAfter(entry, last);
+        root.setEntry(entry);
+        insert(root.getChildren(), root, entry);
+      }
+    }
+  }
+
+  /**
+   * Whether this index was built for the given roots.
+   *
+   * @param roots the current roots of the document.
+   * @return true if the roots are the same, in the same order.
+   */
+  boolean covers(Collection<BaseNode> roots) {
+    if (roots.size() != this.roots.size()) {
+      return false;
+    }
+
+    int i = 0;
+    for (BaseNode root : roots) {
+      if (this.roots.get(i++) != root) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  List<BaseNode> findByName(String name) {
+    return nodesOf(byName.get(name));
+  }
+
+  List<BaseNode> findByClass(String className) {
+    return nodesOf(byClass.get(className));
+  }
+
+  List<BaseNode> findById(String id) {
+    return nodesOf(byId.get(id));
+  }
+
+  /**
+   * Adds a node and its subtree, after the nodes before it in document order. The parent of the
+   * node, and the nodes before it, must be in the index. Nodes already in the index are skipped
+   * with their subtrees.
+   *
+   * @param node the node that was attached.
+   */
+  void attach(BaseNode node) {
+    if (node.getIndex() != this) {
+      insert(List.of(node), node.getParent(), lastBefore(node));
+    }
+  }
+
+  /**
+   * Removes a node and its subtree. Children that belong to another parent stay in the index.
+   *
+   * @param node the node that was detached.
+   */
+  void detach(BaseNode node) {
+    Deque<BaseNode> stack = new ArrayDeque<>();
+    stack.push(node);
+    while (!stack.isEmpty()) {
+      BaseNode current = stack.pop();
+      if (current.getIndex() != this) {
+        continue;
+      }
+
+      remove(current);
+      unlink(current.getEntry());
+      current.setEntry(null);
+      for (BaseNode child : current.getChildren()) {
+        if (child.getParent() == current) {
+          stack.push(child);
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the identifier of a single node, which must have an entry in this index.
+   */
+  void add(BaseNode node) {
+    Entry entry = node.getEntry();
+    JsonIdentifier identifier = node.getIdentifier();
+    put(byName, identifier.getName(), entry);
+    put(byId, identifier.getId(), entry);
+    for (String className : identifier.getClasses()) {
+      put(byClass, className, entry);
+    }
+  }
+
+  /**
+   * Removes the identifier of a single node.
+   */
+  void remove(BaseNode node) {
+    Entry entry = node.getEntry();
+    JsonIdentifier identifier = node.getIdentifier();
+    delete(byName, identifier.getName(), entry);
+    delete(byId, identifier.getId(), entry);
+    for (String className : identifier.getClasses()) {
+      delete(byClass, className, entry);
+    }
+  }
+
+  void nameChanged(BaseNode node, String oldName, String newName) {
+    delete(byName, oldName, node.getEntry());
+    put(byName, newName, node.getEntry());
+  }
+
+  void idChanged(BaseNode node, String oldId, String newId) {
+    delete(byId, oldId, node.getEntry());
+    put(byId, newId, node.getEntry());
+  }
+
+  void classAdded(BaseNode node, String className) {
+    put(byClass, className, node.getEntry());
+  }
+
+  void classRemoved(BaseNode node, String className) {
+    delete(byClass, className, node.getEntry());
+  }
+
+  private static void put(Map<String, NavigableSet<Entry>> map, String key, Entry entry) {
+    if (key != null && !key.isEmpty()) {
+      map.computeIfAbsent(key, ignored -> new TreeSet<>(IN_ORDER)).add(entry);
+    }
+  }
+
+  private static void delete(Map<String, NavigableSet<Entry>> map, String key, Entry entry) {
+    if (key == null) {
+      return;
+    }
+
+    NavigableSet<Entry> entries = map.get(key);
+    if (entries != null && entries.remove(entry) && entries.isEmpty()) {
+      map.remove(key);
+    }
+  }
+
+  private static List<BaseNode> nodesOf(NavigableSet<Entry> entries) {
+    if (entries == null) {
+      return List.of();
+    }
+
+    List<BaseNode> result = new ArrayList<>(entries.size());
+    for (Entry entry : entries) {
+      result.add(entry.node);
+    }
+
+    return result;
+  }
+
+  /**
+   * Inserts the subtrees of the given children of a parent in pre-order, after an entry.
+   *
+   * @param children the children, in order.
+   * @param parent the parent, children that belong to another parent are skipped.
+   * @param previous the entry to insert after.
+   */
+  private void insert(List<BaseNode> children, BaseNode parent, Entry previous) {
+    Deque<BaseNode> stack = new ArrayDeque<>();
+    pushOwned(stack, children, parent);
+    while (!stack.isEmpty()) {
+      BaseNode current = stack.pop();
+      if (current.getIndex() == this) {
+        // Already in order, the next node goes after its subtree
+        previous = lastIn(current).getEntry();
+        continue;
+      }
+
+      Entry entry = new Entry(this, current);
+      insertAfter(entry, previous);
+      current.setEntry(entry);
+      add(current);
+      previous = entry;
+      pushOwned(stack, current.getChildren(), current);
+    }
+  }
+
+  private static void pushOwned(Deque<BaseNode> stack, List<BaseNode> children, BaseNode parent) {
+    for (int i = children.size() - 1; i >= 0; i--) {
+      BaseNode child = children.get(i);
+      if (child.getParent() == parent) {
+        stack.push(child);
+      }
+    }
+  }
+
+  /**
+   * The entry of the last indexed node before the given node in document order, which is the last
+   * node in the subtree of the closest indexed sibling before it, or else its parent.
+   */
+  private Entry lastBefore(BaseNode node) {
+    BaseNode parent = node.getParent();
+    BaseNode sibling = parent.childList().lastBefore(node, child -> owns(parent, child));
+    return sibling == null ? parent.getEntry() : lastIn(sibling).getEntry();
+  }
+
+  /**
+   * The last indexed node in the subtree of an indexed node.
+   */
+  private BaseNode lastIn(BaseNode node) {
+    BaseNode current = node;
+    while (true) {
+      BaseNode parent = current;
+      ChildList children = parent.childList();
+      BaseNode child = children == null ? null : children.lastBefore(null, c -> owns(parent, c));
+      if (child == null) {
+        return current;
+      }
+      current = child;
+    }
+  }
+
+  /**
+   * Whether a child is in this index under the parent it is listed in.
+   */
+  private boolean owns(BaseNode parent, BaseNode child) {
+    return child.getParent() == parent && child.getIndex() == this;
+  }
+
+  /**
+   * Links an entry into the list after another, and labels it.
+   *
+   * @param entry the new entry.
+   * @param previous the entry before it, or null to make it the first.
+   */
+  private void insertAfter(Entry entry, Entry previous) {
+    Entry next = previous == null ? null : previous.next;
+    if (previous == null && last != null) {
+      // Only the first root is inserted first, the others follow it
+      throw new IllegalStateException("The index already has a first node");
+    }
+
+    entry.prev = previous;
+    entry.next = next;
+    if (previous != null) {
+      previous.next = entry;
+    }
+    if (next != null) {
+      next.prev = entry;
+    } else {
+      last = entry;
+    }
+
+    long low = previous == null ? -1 : previous.order;
+    long high = next == null ? SPACE : next.order;
+    if (high - low > 1) {
+      entry.order = next == null ? low + Math.min(APPEND_GAP, (high - low) / 2)
+          : low + (high - low) / 2;
+    } else {
+      spread(entry);
+    }
+  }
+
+  /**
+   * Labels an entry that has no room between its neighbours. The smallest aligned range of labels
+   * around it that is sparse enough for one more entry has its labels spread out evenly. A range of
+   * 2^i labels is sparse enough when it holds fewer than (2 / DENSITY)^i entries.
+   */
+  private void spread(Entry entry) {
+    long label = entry.prev.order;
+    Entry first = entry;
+    Entry end = entry;
+    int count = 1;
+    double limit = 1;
+    for (int bits = 1; bits <= 62; bits++) {
+      limit *= 2 / DENSITY;
+      long low = label >>> bits << bits;
+      long high = low + (1L << bits) - 1;
+      while (first.prev != null && first.prev.order >= low) {
+        first = first.prev;
+        count++;
+      }
+      while (end.next != null && end.next.order <= high) {
+        end = end.next;
+        count++;
+      }
+
+      if (count < limit || bits == 62) {
+        long step = (1L << bits) / count;
+        long order = low;
+        for (Entry current = first; current != end.next; current = current.next) {
+          current.order = order;
+          order += step;
+        }
+        return;
+      }
+    }
+  }
+
+  private void unlink(Entry entry) {
+    if (entry.prev != null) {
+      entry.prev.next = entry.next;
+    }
+    if (entry.next != null) {
+      entry.next.prev = entry.prev;
+    } else {
+      last = entry.prev;
+    }
+    entry.prev = null;
+    entry.next = null;
+  }
+
+  /**
+   * The place of a node in the document order of an index.
+   */
+  static final class Entry {
+
+    private final NodeIndex index;
+    private final BaseNode node;
+    private long order;
+    private Entry prev;
+    private Entry next;
+
+    private Entry(NodeIndex index, BaseNode node) {
+      this.index = index;
+      this.node = node;
+    }
+
+    NodeIndex index() {
+      return index;
+    }
+  }
+}
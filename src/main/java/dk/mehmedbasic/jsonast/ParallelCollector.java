@@ -0,0 +1,109 @@
+package dk.mehmedbasic.jsonast;
+
+import dk.mehmedbasic.jsonast.selector.NodeFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Collects the nodes that pass a filter from a range of siblings and their subtrees, splitting big
+ * ranges into fork-join tasks.
+ * <br/><br/>
+ * A range with more than {@link #THRESHOLD} siblings is split in two halves, and a node with more
+ * children than that has its children collected by a new task, so the work is spread over the pool
+ * where the tree is wide. The results of the halves are concatenated, so they stay in document
+ * order.
+ * <br/><br/>
+ * Reading a node never changes it, so the tasks share the tree without locks, but the tree must not
+ * be changed while they run. A wide child list is copied to an array before it is split, as reading
+ * a child list by index scans past the tombstones of an open removal batch.
+ */
+final class ParallelCollector extends RecursiveTask<List<BaseNode>> {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The most siblings collected by one task.
+   */
+  static final int THRESHOLD = 64;
+
+  private final BaseNode parent;
+  private final List<BaseNode> children;
+  private final int from;
+  private final int to;
+  private final NodeFilter filter;
+  private final Set<BaseNode> exclusions;
+
+  ParallelCollector(BaseNode parent, NodeFilter filter, Set<BaseNode> exclusions) {
+    this(parent, snapshot(parent.getChildren()), filter, exclusions);
+  }
+
+  private ParallelCollector(BaseNode parent, List<BaseNode> children, NodeFilter filter,
+      Set<BaseNode> exclusions) {
+    this(parent, children, 0, children.size(), filter, exclusions);
+  }
+
+  private ParallelCollector(BaseNode parent, List<BaseNode> children, int from, int to,
+      NodeFilter filter, Set<BaseNode> exclusions) {
+    this.parent = parent;
+    this.children = children;
+    this.from = from;
+    this.to = to;
+    this.filter = filter;
+    this.exclusions = exclusions;
+  }
+
+  @Override
+  protected List<BaseNode> compute() {
+    if (to - from > THRESHOLD) {
+      int middle = (from + to) >>> 1;
+      ParallelCollector first = new ParallelCollector(parent, children, from, middle, filter,
+          exclusions);
+      first.fork();
+      List<BaseNode> second = new ParallelCollector(parent, children, middle, to, filter,
+          exclusions).compute();
+
+      List<BaseNode> result = first.join();
+      result.addAll(second);
+      return result;
+    }
+
+    List<BaseNode> result = new ArrayList<>();
+    collect(parent, children, from, to, result);
+    return result;
+  }
+
+  private void collect(BaseNode node, List<BaseNode> nodes, int from, int to,
+      List<BaseNode> result) {
+    boolean array = node.isArray();
+    for (int index = from; index < to; index++) {
+      BaseNode child = nodes.get(index);
+      if (filter.apply(child, array ? index : null)) {
+        result.add(child);
+      }
+
+      if (exclusions.contains(child)) {
+        continue;
+      }
+
+      List<BaseNode> grandChildren = child.getChildren();
+      if (grandChildren.size() > THRESHOLD) {
+        result.addAll(new ParallelCollector(child, snapshot(grandChildren), filter, exclusions)
+            .compute());
+      } else {
+        collect(child, grandChildren, 0, grandChildren.size(), result);
+      }
+    }
+  }
+
+  /**
+   * Copies a list that is about to be split, so the tasks only read the copy.
+   */
+  private static List<BaseNode> snapshot(List<BaseNode> children) {
+    return children.size() > THRESHOLD
+        ? Arrays.asList(children.toArray(new BaseNode[0]))
+        : children;
+  }
+}
@@ -0,0 +1,224 @@
+package dk.mehmedbasic.jsonast;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the changes made to nodes on the current thread, so they can be undone.
+ * <br/><br/>
+ * Every change made while the log is open records how to undo it, and rolling back undoes them
+ * newest first. Adding and removing a child is undone by putting the child list back one slot at a
+ * time, along with the parent and the place in the document index the child had, so undoing costs
+ * what the changes did and not the width of the objects and arrays changed. Moving and renaming
+ * are undone the same way, as a move is a removal and an addition, and the first time a node
+ * changes the log keeps its identifier and value, which a rename or a new value is undone with.
+ * Replacing or adding a root of a document is undone as well.
+ * <br/><br/>
+ * Logs nest: a log begun while another is open on the same thread hands its changes to the outer
+ * log when it is committed, so rolling back the outer log undoes them too. Changes made on other
+ * threads are not recorded, and neither are changes made to the set of roots of a document
+ * directly, rather than through {@link JsonNodes#addRoot(BaseNode)} and
+ * {@link JsonNodes#setRoots(java.util.Set)}.
+ * <br/><br/>
+ * Most callers want {@link #atomically(Runnable)}, which undoes the changes of a failed step.
+ */
+public final class UndoLog {
+
+  private static final ThreadLocal<UndoLog> CURRENT = new ThreadLocal<>();
+  /**
+   * The number of open logs on all threads, so changes made while none are open skip the lookup.
+   */
+  private static final AtomicInteger OPEN = new AtomicInteger();
+
+  private final UndoLog outer;
+  /**
+   * The recorder open when the log began, and the number of operations it had then.
+   */
+  private final JsonPatchRecorder recorder = JsonPatchRecorder.current();
+  private final int recorded = recorder == null ? 0 : recorder.size();
+  /**
+   * The nodes whose identifier and value have been kept.
+   */
+  private final Set<BaseNode> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+  /**
+   * How to undo each change, oldest first.
+   */
+  private final List<Runnable> undo = new ArrayList<>();
+  private boolean closed;
+  /**
+   * Set while the log changes nodes itself, those changes are not recorded.
+   */
+  private boolean paused;
+
+  private UndoLog(UndoLog outer) {
+    this.outer = outer;
+  }
+
+  /**
+   * Opens a log on the current thread, inside the log already open, if any.
+   *
+   * @return the log, which must be committed or rolled back on this thread.
+   */
+  public static UndoLog begin() {
+    UndoLog log = new UndoLog(CURRENT.get());
+    CURRENT.set(log);
+    OPEN.incrementAndGet();
+    return log;
+  }
+
+  /**
+   * Runs a step, and undoes the changes it made to nodes if it throws.
+   *
+   * @param step the step, for instance a transformer being applied.
+   */
+  public static void atomically(Runnable step) {
+    UndoLog log = begin();
+    try {
+      step.run();
+    } catch (RuntimeException | Error e) {
+      log.rollback();
+      throw e;
+    }
+
+    log.commit();
+  }
+
+  /**
+   * Keeps the changes. An outer log takes over the changes, so it can still undo them.
+   */
+  public void commit() {
+    close();
+    if (outer != null) {
+      outer.undo.addAll(undo);
+      outer.changed.addAll(changed);
+    }
+  }
+
+  /**
+   * Undoes the changes recorded, newest first, and closes the log.
+   */
+  public void rollback() {
+    paused = true;
+    try {
+      for (int i = undo.size() - 1; i >= 0; i--) {
+        undo.get(i).run();
+      }
+
+      // The undone changes, and their undoing, are taken out of the patch being recorded
+      JsonPatchRecorder current = JsonPatchRecorder.current();
+      if (current != null) {
+        current.truncate(current == recorder ? recorded : 0);
+      }
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Gets the number of nodes changed while the log was open.
+   *
+   * @return the count.
+   */
+  public int getChangedNodes() {
+    return changed.size();
+  }
+
+  /**
+   * Gets the log that records the changes made on this thread now, if any.
+   *
+   * @return the log, or null if none is open or the log is undoing changes itself.
+   */
+  static UndoLog active() {
+    if (OPEN.get() == 0) {
+      return null;
+    }
+
+    UndoLog log = CURRENT.get();
+    return log == null || log.paused ? null : log;
+  }
+
+  /**
+   * Records how to undo a change about to be made.
+   *
+   * @param step undoes the change, it is run with the tree as it was right after the change.
+   */
+  void record(Runnable step) {
+    undo.add(step);
+  }
+
+  /**
+   * Records a node about to change, if a log is open on this thread.
+   */
+  static void changing(BaseNode node) {
+    UndoLog log = active();
+    if (log != null && log.changed.add(node)) {
+      log.paused = true;
+      try {
+        log.undo.add(new Image(node)::restore);
+      } finally {
+        log.paused = false;
+      }
+    }
+  }
+
+  private void close() {
+    if (closed) {
+      throw new IllegalStateException("The log is already closed");
+    }
+    if (CURRENT.get() != this) {
+      throw new IllegalStateException("Logs must be closed on their thread, innermost first");
+    }
+
+    closed = true;
+    OPEN.decrementAndGet();
+    if (outer == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(outer);
+    }
+  }
+
+  /**
+   * The identifier and value of a node before it was first changed.
+   */
+  private static final class Image {
+
+    private final BaseNode node;
+    private final JsonIdentifier identifier;
+    private final JsonIdentifier contents;
+    private final JsonValueNode value;
+
+    private Image(BaseNode node) {
+      this.node = node;
+      this.identifier = node.getIdentifier();
+      this.contents = identifier.copy();
+      if (node.isValueNode()) {
+        value = new JsonValueNode(null);
+        value.copyValue((JsonValueNode) node);
+      } else {
+        value = null;
+      }
+    }
+
+    private void restore() {
+      if (node.isFrozen()) {
+        // Created and frozen while the log was open, for instance a cached fragment
+        return;
+      }
+
+      node.beforeChange();
+      if (node.getIdentifier() != identifier) {
+        node.setIdentifier(identifier);
+      }
+      identifier.restore(contents);
+
+      if (value != null) {
+        ((JsonValueNode) node).copyValue(value);
+      }
+    }
+  }
+}
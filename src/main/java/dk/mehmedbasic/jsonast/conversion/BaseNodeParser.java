@@ -0,0 +1,228 @@
+package dk.mehmedbasic.jsonast.conversion;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import dk.mehmedbasic.jsonast.BaseNode;
+import dk.mehmedbasic.jsonast.JsonArrayNode;
+import dk.mehmedbasic.jsonast.JsonDocument;
+import dk.mehmedbasic.jsonast.JsonObjectNode;
+import dk.mehmedbasic.jsonast.JsonValueNode;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+
+/**
+ * Parses JSON straight into dk.mehmedbasic.jsonast nodes.
+ * <br/><br/>
+ * The tree is built from the Jackson token stream in a single pass, so no intermediate Jackson
+ * tree is kept in memory. The resulting nodes are identical to the ones created by
+ * {@link JacksonConverter#asTransformable(com.fasterxml.jackson.databind.JsonNode,
+ * ConversionNamingStrategy)}.
+ */
+public final class BaseNodeParser {
+
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  private final ConversionNamingStrategy strategy;
+
+  public BaseNodeParser() {
+    this(null);
+  }
+
+  public BaseNodeParser(ConversionNamingStrategy strategy) {
+    this.strategy = Objects.requireNonNullElseGet(strategy, DefaultNamingStrategy::new);
+  }
+
+  /**
+   * Parses a JsonDocument from the given input. The stream is closed afterwards.
+   *
+   * @param inputStream the stream to parse.
+   * @return the resulting JsonDocument.
+   */
+  public JsonDocument parse(InputStream inputStream) throws IOException {
+    try (JsonParser parser = FACTORY.createParser(inputStream)) {
+      return parse(parser);
+    }
+  }
+
+  /**
+   * Parses a JsonDocument from the given string.
+   *
+   * @param content the string to parse.
+   * @return the resulting JsonDocument.
+   */
+  public JsonDocument parse(String content) throws JsonProcessingException {
+    try (JsonParser parser = FACTORY.createParser(content)) {
+      return parse(parser);
+    } catch (JsonProcessingException e) {
+      throw e;
+    } catch (IOException e) {
+      // Reading from a string does not do any I/O, same handling as ObjectMapper.readTree
+      throw JsonMappingException.fromUnexpectedIOE(e);
+    }
+  }
+
+  /**
+   * Parses the next value of the given parser into a JsonDocument.
+   * <br/><br/>
+   * If the parser has no more content, the document will have no roots.
+   *
+   * @param parser the parser to read from.
+   * @return the resulting JsonDocument.
+   */
+  public JsonDocument parse(JsonParser parser) throws IOException {
+    JsonDocument document = new JsonDocument();
+
+    BaseNode root = readNode(parser, null);
+    if (root != null) {
+      document.addRoot(root);
+    }
+
+    return document;
+  }
+
+  /**
+   * Reads the value the parser is positioned at into a detached node.
+   * <br/><br/>
+   * If the parser has no current token, it is advanced once. When this method returns, the parser
+   * is positioned at the last token of the value.
+   *
+   * @param parser the parser to read from.
+   * @param name the name of the value, null for array elements and roots.
+   * @return the node, or null if the parser has no more content.
+   */
+  public BaseNode readNode(JsonParser parser, String name) throws IOException {
+    JsonToken token = parser.currentToken();
+    if (token == null) {
+      token = parser.nextToken();
+    }
+
+    if (token == null) {
+      return null;
+    }
+
+    if (!token.isStructStart()) {
+      return createValue(parser, token, name);
+    }
+
+    BaseNode root = createContainer(token, name);
+
+    Deque<BaseNode> stack = new ArrayDeque<>();
+    stack.push(root);
+
+    String fieldName = null;
+    while (!stack.isEmpty()) {
+      token = parser.nextToken();
+      if (token == null) {
+        throw new JsonParseException(parser, "Unexpected end of input");
+      }
+
+      switch (token) {
+        case FIELD_NAME -> fieldName = parser.getCurrentName();
+        case END_OBJECT, END_ARRAY -> stack.pop();
+        case START_OBJECT, START_ARRAY -> {
+          BaseNode container = createContainer(token, fieldName);
+          stack.peek().addChild(container);
+          stack.push(container);
+          fieldName = null;
+        }
+        default -> {
+          stack.peek().addChild(createValue(parser, token, fieldName));
+          fieldName = null;
+        }
+      }
+    }
+
+    return root;
+  }
+
+  /**
+   * Creates an empty node for the object or array the parser is positioned at, without reading
+   * its content. The node has the same identifier as the one {@link #readNode} creates.
+   *
+   * @param parser the parser, positioned at the start of an object or array.
+   * @param name the name of the value, null for array elements and roots.
+   * @return the empty node.
+   */
+  public BaseNode readEmptyContainer(JsonParser parser, String name) {
+    JsonToken token = parser.currentToken();
+    if (token == null || !token.isStructStart()) {
+      throw new IllegalStateException("The parser is not at the start of a container: " + token);
+    }
+
+    return createContainer(token, name);
+  }
+
+  private BaseNode createContainer(JsonToken token, String name) {
+    BaseNode result;
+    if (token == JsonToken.START_OBJECT) {
+      result = new JsonObjectNode();
+      result.setIdentifier(strategy.toTransformableName(name, result));
+      result.getIdentifier().addClass("object");
+    } else {
+      result = new JsonArrayNode();
+      result.setIdentifier(strategy.toTransformableName(name, result));
+      result.getIdentifier().addClass("array");
+    }
+
+    return result;
+  }
+
+  private BaseNode createValue(JsonParser parser, JsonToken token, String name)
+      throws IOException {
+    JsonValueNode result = new JsonValueNode(null);
+    result.setIdentifier(strategy.toTransformableName(name, result));
+    if ("@version".equals(name)) {
+      result.getIdentifier().addClass("sysclass_version");
+    }
+
+    result.getIdentifier().addClass("value");
+
+    switch (token) {
+      case VALUE_TRUE, VALUE_FALSE -> {
+        result.getIdentifier().addClass("boolean");
+        result.setValue(token == JsonToken.VALUE_TRUE);
+      }
+      case VALUE_STRING -> {
+        result.getIdentifier().addClass("string");
+        result.setValue(parser.getText());
+      }
+      case VALUE_NUMBER_INT -> {
+        switch (parser.getNumberType()) {
+          case INT -> {
+            result.getIdentifier().addClass("int");
+            result.setValue(parser.getIntValue());
+          }
+          case LONG -> {
+            result.getIdentifier().addClass("long");
+            result.setValue(parser.getLongValue());
+          }
+          default -> {
+            result.getIdentifier().addClass("decimal");
+            result.setValue(parser.getDecimalValue());
+          }
+        }
+      }
+      case VALUE_NUMBER_FLOAT -> {
+        if (parser.getNumberType() == JsonParser.NumberType.BIG_DECIMAL) {
+          result.getIdentifier().addClass("decimal");
+          result.setValue(parser.getDecimalValue());
+        } else {
+          result.getIdentifier().addClass("double");
+          result.setValue(parser.getDoubleValue());
+        }
+      }
+      default -> {
+        // null and embedded values are kept as null
+      }
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,222 @@
+package dk.mehmedbasic.jsonast.conversion;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import dk.mehmedbasic.jsonast.BaseNode;
+import dk.mehmedbasic.jsonast.JsonArrayNode;
+import dk.mehmedbasic.jsonast.JsonDocument;
+import dk.mehmedbasic.jsonast.JsonObjectNode;
+import dk.mehmedbasic.jsonast.JsonValueNode;
+import dk.mehmedbasic.jsonast.conversion.ConversionNamingStrategy.StringPair;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Writes dk.mehmedbasic.jsonast nodes as JSON.
+ * <br/><br/>
+ * The nodes are written token by token to a {@link JsonGenerator}, without building a Jackson
+ * tree first. The output is the same as serializing the result of
+ * {@link JacksonConverter#asJacksonNode(JsonDocument, ConversionNamingStrategy)}.
+ */
+public final class BaseNodeWriter {
+
+  private static final JsonFactory FACTORY = new JsonFactory()
+      .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+  private final ConversionNamingStrategy strategy;
+  private final boolean pretty;
+
+  public BaseNodeWriter() {
+    this(null, false);
+  }
+
+  public BaseNodeWriter(ConversionNamingStrategy strategy) {
+    this(strategy, false);
+  }
+
+  public BaseNodeWriter(ConversionNamingStrategy strategy, boolean pretty) {
+    this.strategy = Objects.requireNonNullElseGet(strategy, DefaultNamingStrategy::new);
+    this.pretty = pretty;
+  }
+
+  /**
+   * Writes the document to the given stream as UTF-8. The stream is flushed but not closed.
+   *
+   * @param document the document to write.
+   * @param outputStream the destination.
+   */
+  public void write(JsonDocument document, OutputStream outputStream) throws IOException {
+    try (JsonGenerator generator = FACTORY.createGenerator(outputStream)) {
+      write(document, configure(generator));
+    }
+  }
+
+  /**
+   * Writes the document to the given writer. The writer is flushed but not closed.
+   *
+   * @param document the document to write.
+   * @param writer the destination.
+   */
+  public void write(JsonDocument document, Writer writer) throws IOException {
+    try (JsonGenerator generator = FACTORY.createGenerator(writer)) {
+      write(document, configure(generator));
+    }
+  }
+
+  /**
+   * Writes the document to a string.
+   *
+   * @param document the document to write.
+   * @return the JSON string.
+   */
+  public String writeAsString(JsonDocument document) throws IOException {
+    StringWriter writer = new StringWriter();
+    write(document, writer);
+    return writer.toString();
+  }
+
+  /**
+   * Writes the root of the document to the given generator.
+   * <br/><br/>
+   * The generator is used as is, the pretty printing setting of this writer is not applied.
+   *
+   * @param document the document to write.
+   * @param generator the generator to write to.
+   */
+  public void write(JsonDocument document, JsonGenerator generator) throws IOException {
+    write(document.iterator().next(), generator);
+    generator.flush();
+  }
+
+  /**
+   * Writes a single node, including its children, to the given generator.
+   *
+   * @param node the node to write.
+   * @param generator the generator to write to.
+   */
+  public void write(BaseNode node, JsonGenerator generator) throws IOException {
+    writeNode(node, null, generator);
+  }
+
+  /**
+   * Writes a single node as an element of an array, so an object gets the extra pairs of the naming
+   * strategy, just like the elements written with their array.
+   *
+   * @param node the node to write.
+   * @param generator the generator to write to.
+   */
+  public void writeElement(BaseNode node, JsonGenerator generator) throws IOException {
+    writeNode(node, node.isObject() ? toPairMap(strategy.toJacksonInArray(node)) : null, generator);
+  }
+
+  private JsonGenerator configure(JsonGenerator generator) {
+    if (pretty) {
+      generator.useDefaultPrettyPrinter();
+    }
+
+    return generator;
+  }
+
+  private void writeNode(BaseNode node, Map<String, String> pairs, JsonGenerator generator)
+      throws IOException {
+    if (node.isArray()) {
+      writeArray((JsonArrayNode) node, generator);
+    } else if (node.isValueNode()) {
+      writeValue((JsonValueNode) node, generator);
+    } else if (node.isObject()) {
+      writeObject((JsonObjectNode) node, pairs, generator);
+    } else {
+      throw new IllegalArgumentException("Unknown node type: " + node);
+    }
+  }
+
+  private void writeArray(JsonArrayNode arrayNode, JsonGenerator generator) throws IOException {
+    generator.writeStartArray();
+    for (BaseNode child : arrayNode.getChildren()) {
+      Map<String, String> pairs = null;
+      if (child.isObject()) {
+        pairs = toPairMap(strategy.toJacksonInArray(child));
+      }
+
+      writeNode(child, pairs, generator);
+    }
+
+    generator.writeEndArray();
+  }
+
+  /**
+   * Writes an object. The extra pairs replace children with the same name, or are appended at the
+   * end, and the first child wins for duplicate names, just like the Jackson tree conversion.
+   */
+  private void writeObject(JsonObjectNode objectNode, Map<String, String> pairs,
+      JsonGenerator generator) throws IOException {
+    generator.writeStartObject();
+
+    List<BaseNode> children = objectNode.getChildren();
+    Set<String> written = children.size() > 1 ? new HashSet<>() : null;
+    for (BaseNode child : children) {
+      String name = strategy.toJacksonName(child);
+      if (written != null && !written.add(name)) {
+        continue;
+      }
+
+      generator.writeFieldName(name);
+      if (pairs != null && pairs.containsKey(name)) {
+        writeString(pairs.remove(name), generator);
+      } else {
+        writeNode(child, null, generator);
+      }
+    }
+
+    if (pairs != null) {
+      for (Map.Entry<String, String> pair : pairs.entrySet()) {
+        generator.writeFieldName(pair.getKey());
+        writeString(pair.getValue(), generator);
+      }
+    }
+
+    generator.writeEndObject();
+  }
+
+  private static void writeValue(JsonValueNode valueNode, JsonGenerator generator)
+      throws IOException {
+    switch (valueNode.getValueType()) {
+      case Int -> generator.writeNumber(valueNode.intValue());
+      case Long -> generator.writeNumber(valueNode.longValue());
+      case Double -> generator.writeNumber(valueNode.doubleValue());
+      case BigDecimal -> generator.writeNumber(valueNode.bigDecimalValue());
+      case Boolean -> generator.writeBoolean(valueNode.booleanValue());
+      case String -> generator.writeString(valueNode.stringValue());
+      case Null -> generator.writeNull();
+    }
+  }
+
+  private static void writeString(String value, JsonGenerator generator) throws IOException {
+    if (value == null) {
+      generator.writeNull();
+    } else {
+      generator.writeString(value);
+    }
+  }
+
+  private static Map<String, String> toPairMap(List<StringPair> pairs) {
+    if (pairs.isEmpty()) {
+      return null;
+    }
+
+    Map<String, String> result = new LinkedHashMap<>();
+    for (StringPair pair : pairs) {
+      result.put(pair.name(), pair.value());
+    }
+
+    return result;
+  }
+}
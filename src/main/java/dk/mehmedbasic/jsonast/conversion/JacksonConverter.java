@@ -2,10 +2,13 @@ package dk.mehmedbasic.jsonast.conversion;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.BigIntegerNode;
 import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.DecimalNode;
 import com.fasterxml.jackson.databind.node.DoubleNode;
 import com.fasterxml.jackson.databind.node.IntNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.LongNode;
 import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
@@ -14,6 +17,7 @@ import dk.mehmedbasic.jsonast.JsonArrayNode;
 import dk.mehmedbasic.jsonast.JsonDocument;
 import dk.mehmedbasic.jsonast.JsonObjectNode;
 import dk.mehmedbasic.jsonast.JsonValueNode;
+import java.math.BigDecimal;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
@@ -61,21 +65,15 @@ public class JacksonConverter {
 
       if (baseNode.isValueNode()) {
         JsonValueNode valueNode = (JsonValueNode) baseNode;
-        if (baseNode.isInt()) {
-          return new IntNode(valueNode.intValue());
-        } else if (baseNode.isDouble()) {
-          return new DoubleNode(valueNode.doubleValue());
-        } else if (baseNode.isBoolean()) {
-          if (valueNode.booleanValue()) {
-            return BooleanNode.TRUE;
-          } else {
-            return BooleanNode.FALSE;
-          }
-        } else if (baseNode.isString()) {
-          return new TextNode(valueNode.stringValue());
-        }
-
-        return NullNode.getInstance();
+        return switch (valueNode.getValueType()) {
+          case Int -> new IntNode(valueNode.intValue());
+          case Long -> new LongNode(valueNode.longValue());
+          case Double -> new DoubleNode(valueNode.doubleValue());
+          case BigDecimal -> toJacksonDecimal(valueNode.bigDecimalValue());
+          case Boolean -> valueNode.booleanValue() ? BooleanNode.TRUE : BooleanNode.FALSE;
+          case String -> new TextNode(valueNode.stringValue());
+          case Null -> NullNode.getInstance();
+        };
       }
 
       if (baseNode.isObject()) {
@@ -92,6 +90,17 @@ public class JacksonConverter {
       throw new IllegalArgumentException("Unknown node type: " + baseNode);
     }
 
+    /**
+     * Big integers are stored as decimals without a scale, they are converted back as integers.
+     */
+    private static JsonNode toJacksonDecimal(BigDecimal value) {
+      if (value.scale() == 0) {
+        return new BigIntegerNode(value.toBigInteger());
+      }
+
+      return new DecimalNode(value);
+    }
+
     /**
      * Converts the given node.
      *
@@ -105,7 +114,7 @@ public class JacksonConverter {
         ObjectNode objectNode = (ObjectNode) source;
 
         result.setIdentifier(strategy.toTransformableName(name, result));
-        result.getIdentifier().getClasses().add("object");
+        result.getIdentifier().addClass("object");
 
         Iterator<Map.Entry<String, JsonNode>> fields = objectNode.fields();
         while (fields.hasNext()) {
@@ -119,7 +128,7 @@ public class JacksonConverter {
         ArrayNode arrayNode = (ArrayNode) source;
 
         result.setIdentifier(strategy.toTransformableName(name, result));
-        result.getIdentifier().getClasses().add("array");
+        result.getIdentifier().addClass("array");
 
         for (JsonNode node : arrayNode) {
           result.addChild(convertToTransformable(null, node));
@@ -129,23 +138,32 @@ public class JacksonConverter {
       } else if (source.isValueNode()) {
         JsonValueNode result = new JsonValueNode(null);
         result.setIdentifier(strategy.toTransformableName(name, result));
-        if (name.equals("@version")) {
+        if ("@version".equals(name)) {
           result.getIdentifier().addClass("sysclass_version");
         }
 
-        result.getIdentifier().getClasses().add("value");
+        result.getIdentifier().addClass("value");
 
         if (source.isBoolean()) {
-          result.getIdentifier().getClasses().add("boolean");
+          result.getIdentifier().addClass("boolean");
           result.setValue(source.booleanValue());
         } else if (source.isInt()) {
-          result.getIdentifier().getClasses().add("int");
+          result.getIdentifier().addClass("int");
           result.setValue(source.intValue());
+        } else if (source.isLong()) {
+          result.getIdentifier().addClass("long");
+          result.setValue(source.longValue());
+        } else if (source.isBigInteger()) {
+          result.getIdentifier().addClass("decimal");
+          result.setValue(source.decimalValue());
         } else if (source.isTextual()) {
-          result.getIdentifier().getClasses().add("string");
+          result.getIdentifier().addClass("string");
           result.setValue(source.textValue());
-        } else if (source.isDouble()) {
-          result.getIdentifier().getClasses().add("double");
+        } else if (source.isBigDecimal()) {
+          result.getIdentifier().addClass("decimal");
+          result.setValue(source.decimalValue());
+        } else if (source.isFloatingPointNumber()) {
+          result.getIdentifier().addClass("double");
           result.setValue(source.doubleValue());
         }
 
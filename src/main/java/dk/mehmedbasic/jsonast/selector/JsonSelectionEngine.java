@@ -14,7 +14,10 @@ import dk.mehmedbasic.jsonast.JsonObjectNode;
 import dk.mehmedbasic.jsonast.JsonValueNode;
 import java.io.IOException;
 import java.io.StringReader;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.function.Predicate;
 import org.w3c.css.sac.Condition;
 import org.w3c.css.sac.ConditionalSelector;
@@ -26,10 +29,20 @@ import org.w3c.css.sac.SelectorList;
 
 /**
  * The selector engine that parses and applies the selection rules
+ * <br/><br/>
+ * An engine is immutable once constructed, the selector is compiled into a {@link SelectorMatcher}
+ * up front, so one engine can be reused for any number of selections and from several threads. Use
+ * {@link #compile(String)} to share engines through the {@link SelectorCache}.
+ * <br/><br/>
+ * A group such as {@code firstName, lastName, #id} selects the union of its selectors, in document
+ * order and without duplicates, found in one traversal.
  */
 public class JsonSelectionEngine {
 
   private final SelectorList selectorList;
+  private final SelectorMatcher matcher;
+  private final boolean valueConditions;
+  private final Set<String> names;
 
   public JsonSelectionEngine(String selector) throws IOException {
     CSSOMParser parser = new CSSOMParser(new SACParserCSS3());
@@ -37,8 +50,38 @@ public class JsonSelectionEngine {
     if (selectorList == null) {
       throw new IllegalArgumentException("Selector '" + selector + "' could not be parsed");
     }
+
+    if (selectorList.getLength() == 0) {
+      matcher = null;
+      valueConditions = false;
+      names = Set.of();
+    } else {
+      matcher = SelectorMatcher.compile(selectorList, JsonSelectionEngine::fromCondition);
+      valueConditions = hasValueConditions(selectorList);
+
+      Set<String> collected = new HashSet<>();
+      for (int i = 0; i < selectorList.getLength(); i++) {
+        collectNames(selectorList.item(i), collected);
+      }
+      names = Set.copyOf(collected);
+    }
+  }
+
+  /**
+   * Gets the compiled selector from the shared {@link SelectorCache}, compiling it if needed.
+   *
+   * @param selector the selector text.
+   * @return the compiled selector.
+   */
+  public static JsonSelectionEngine compile(String selector) {
+    return SelectorCache.shared().get(selector);
   }
 
+  /**
+   * Gets the first selector of the group.
+   *
+   * @return the first selector, or null if there is none.
+   */
   public Selector parse() {
     if (selectorList == null || selectorList.getLength() == 0) {
       return null;
@@ -48,21 +91,158 @@ public class JsonSelectionEngine {
   }
 
   public JsonNodes execute(JsonNodes roots) {
-    return execute(parse(), roots);
+    return matcher == null ? null : matcher.execute(roots);
+  }
+
+  /**
+   * Selects from the subtree of a node, the node included, as selecting from the top of its tree
+   * would, for instance after the subtree has moved.
+   *
+   * @param node the root of the subtree.
+   * @return the selected nodes, in document order.
+   */
+  public List<BaseNode> executeSubtree(BaseNode node) {
+    if (matcher == null) {
+      return List.of();
+    }
+
+    List<BaseNode> selected = new ArrayList<>();
+    matcher.selectSubtree(node, selected::add);
+    return selected;
   }
 
+  /**
+   * Executes several selectors below the same roots. The selectors that need a walk of the tree
+   * share one, see {@link SelectorMatcher#executeAll(List, JsonNodes)}.
+   *
+   * @param engines the selectors.
+   * @param roots the roots to search below.
+   * @return the nodes each selector selects, null for empty selectors, in the order of the engines.
+   */
+  public static List<JsonNodes> executeAll(List<JsonSelectionEngine> engines, JsonNodes roots) {
+    List<SelectorMatcher> matchers = new ArrayList<>(engines.size());
+    for (JsonSelectionEngine engine : engines) {
+      if (engine.matcher != null) {
+        matchers.add(engine.matcher);
+      }
+    }
+
+    List<JsonNodes> selected = SelectorMatcher.executeAll(matchers, roots);
+    List<JsonNodes> result = new ArrayList<>(engines.size());
+    int next = 0;
+    for (JsonSelectionEngine engine : engines) {
+      result.add(engine.matcher == null ? null : selected.get(next++));
+    }
+
+    return result;
+  }
+
+  /**
+   * Executes a parsed selector, compiling it first.
+   *
+   * @param selector the parsed selector.
+   * @param roots the roots to search below.
+   * @return the selected nodes.
+   */
   public JsonNodes execute(Selector selector, JsonNodes roots) {
+    if (selector == null) {
+      return null;
+    }
+
+    return SelectorMatcher.compile(selector, JsonSelectionEngine::fromCondition).execute(roots);
+  }
+
+  /**
+   * The compiled selector, null if the selector was empty.
+   *
+   * @return the matcher.
+   */
+  SelectorMatcher getMatcher() {
+    return matcher;
+  }
+
+  /**
+   * The compiled selector, for matching nodes as they are read from a stream.
+   *
+   * @return the matcher, null if the selector was empty.
+   */
+  public StreamMatcher getStreamMatcher() {
+    return matcher == null ? null : new StreamMatcher(matcher);
+  }
+
+  /**
+   * Whether the selector looks at the values of properties, as in {@code [name=value]}.
+   *
+   * @return true or false.
+   */
+  public boolean hasValueConditions() {
+    return valueConditions;
+  }
+
+  /**
+   * The names the selector compares the names of nodes with, as in {@code name} or {@code [name]}.
+   * Renaming nodes to or from other names does not change what the selector selects, unless it
+   * also looks at property values.
+   *
+   * @return the names.
+   */
+  public Set<String> getNames() {
+    return names;
+  }
+
+  private static void collectNames(Selector selector, Set<String> names) {
+    if (selector instanceof ConditionalSelector conditionalSelector) {
+      collectNames(conditionalSelector.getSimpleSelector(), names);
+      collectNames(conditionalSelector.getCondition(), names);
+    } else if (selector instanceof DescendantSelector descendantSelector) {
+      collectNames(descendantSelector.getAncestorSelector(), names);
+      collectNames(descendantSelector.getSimpleSelector(), names);
+    } else if (selector instanceof ElementSelector elementSelector
+        && elementSelector.getLocalName() != null) {
+      names.add(elementSelector.getLocalName());
+    }
+  }
+
+  private static void collectNames(Condition condition, Set<String> names) {
+    if (condition instanceof AndConditionImpl andCondition) {
+      collectNames(andCondition.getFirstCondition(), names);
+      collectNames(andCondition.getSecondCondition(), names);
+    } else if (condition instanceof AttributeConditionImpl attributeCondition
+        && (attributeCondition.getValue() == null || attributeCondition.getValue().isEmpty())) {
+      // [name] compares the name of the node itself
+      names.add(attributeCondition.getLocalName());
+    }
+  }
+
+  private static boolean hasValueConditions(SelectorList selectors) {
+    for (int i = 0; i < selectors.getLength(); i++) {
+      if (hasValueConditions(selectors.item(i))) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static boolean hasValueConditions(Selector selector) {
     if (selector instanceof ConditionalSelector conditionalSelector) {
-      JsonNodes subtree = execute(conditionalSelector.getSimpleSelector(), roots);
-      return subtree.filter(fromCondition(conditionalSelector.getCondition()));
-    } else if (selector instanceof ElementSelector elementSelector) {
-      return roots.findByName(elementSelector.getLocalName());
+      return hasValueConditions(conditionalSelector.getCondition())
+          || hasValueConditions(conditionalSelector.getSimpleSelector());
     } else if (selector instanceof DescendantSelector descendantSelector) {
-      JsonNodes subtree = execute(descendantSelector.getAncestorSelector(), roots);
-      return execute(descendantSelector.getSimpleSelector(), subtree);
+      return hasValueConditions(descendantSelector.getAncestorSelector())
+          || hasValueConditions(descendantSelector.getSimpleSelector());
+    }
+
+    return false;
+  }
+
+  static boolean hasValueConditions(Condition condition) {
+    if (condition instanceof AndConditionImpl andCondition) {
+      return hasValueConditions(andCondition.getFirstCondition())
+          || hasValueConditions(andCondition.getSecondCondition());
     }
 
-    return null;
+    return fromCondition(condition) instanceof PropertyConditionSelector;
   }
 
   private static NodeFilter fromCondition(final Condition condition) {
@@ -73,9 +253,9 @@ public class JsonSelectionEngine {
       return new PropertyConditionSelector(prefixAttr.getLocalName(),
           value -> value.startsWith(prefixAttr.getValue()));
     } else if (condition instanceof ClassConditionImpl classCondition) {
-      return new ClassConditionSelector(classCondition.getValue());
+      return new NodeClassFilter(classCondition.getValue());
     } else if (condition instanceof IdConditionImpl idCondition) {
-      return new IdConditionSelector(idCondition.getValue());
+      return new NodeIdFilter(idCondition.getValue());
     } else if (condition instanceof AttributeConditionImpl attributeCondition) {
       final String name = attributeCondition.getLocalName();
       final String value = attributeCondition.getValue();
@@ -95,45 +275,6 @@ public class JsonSelectionEngine {
             + condition);
   }
 
-  private static class ClassConditionSelector extends NodeFilter {
-
-    private final String className;
-
-    public ClassConditionSelector(String className) {
-      this.className = className;
-    }
-
-    @Override
-    public boolean apply(BaseNode node, Integer index) {
-      for (String thatName : node.getIdentifier().getClasses()) {
-        if (Objects.equals(thatName, className)) {
-          return true;
-        }
-      }
-
-      return false;
-    }
-  }
-
-  private static class IdConditionSelector extends NodeFilter {
-
-    private final String id;
-
-    public IdConditionSelector(String id) {
-      this.id = id;
-    }
-
-    @Override
-    public boolean apply(BaseNode node, Integer index) {
-      String nodeId = node.getIdentifier().getId();
-      if (nodeId == null || nodeId.isEmpty()) {
-        return false;
-      }
-
-      return Objects.equals(nodeId, id);
-    }
-  }
-
   private static class PropertyNameCondition extends NodeFilter {
 
     private final Predicate<String> condition;
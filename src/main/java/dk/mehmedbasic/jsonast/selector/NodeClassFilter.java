@@ -0,0 +1,26 @@
+package dk.mehmedbasic.jsonast.selector;
+
+import dk.mehmedbasic.jsonast.JsonIdentifier;
+
+/**
+ * Node class filter.
+ */
+public class NodeClassFilter extends JsonIdentifierFilter {
+
+  private final String className;
+  private final int classBit;
+
+  public NodeClassFilter(String className) {
+    this.className = className;
+    this.classBit = JsonIdentifier.classBit(className);
+  }
+
+  @Override
+  public boolean apply(JsonIdentifier identifier) {
+    if (classBit != 0) {
+      return identifier.hasClassBits(classBit);
+    }
+
+    return identifier.hasClass(className);
+  }
+}
@@ -4,6 +4,11 @@ import dk.mehmedbasic.jsonast.BaseNode;
 
 /**
  * A node filter that can filter a subtree.
+ * <br/><br/>
+ * Filters must be safe to apply from several threads at once, because
+ * {@link dk.mehmedbasic.jsonast.JsonNodes#parallel()} applies them from fork-join tasks. Reading a
+ * node never changes it, so a filter that only reads the node and its subtree, and keeps no state
+ * between calls, is safe as long as the tree is not changed while it runs.
  */
 public abstract class NodeFilter {
 
@@ -0,0 +1,26 @@
+package dk.mehmedbasic.jsonast.selector;
+
+import dk.mehmedbasic.jsonast.JsonIdentifier;
+import java.util.Objects;
+
+/**
+ * Node id filter. Nodes without an id never match.
+ */
+public class NodeIdFilter extends JsonIdentifierFilter {
+
+  private final String id;
+
+  public NodeIdFilter(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public boolean apply(JsonIdentifier identifier) {
+    String nodeId = identifier.getId();
+    if (nodeId == null || nodeId.isEmpty()) {
+      return false;
+    }
+
+    return Objects.equals(nodeId, id);
+  }
+}
@@ -0,0 +1,128 @@
+package dk.mehmedbasic.jsonast.selector;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of compiled selectors, keyed by the selector text.
+ * <br/><br/>
+ * The least recently used selector is evicted when the cache is full. The cache is safe to use
+ * from several threads, and selectors are parsed outside the lock, so a slow parse does not block
+ * lookups of other selectors.
+ */
+public final class SelectorCache {
+
+  /**
+   * The number of selectors kept by the shared cache.
+   */
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  private static final SelectorCache SHARED = new SelectorCache(DEFAULT_CAPACITY);
+
+  private final int capacity;
+  private final Map<String, JsonSelectionEngine> engines;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  public SelectorCache(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+
+    this.capacity = capacity;
+    this.engines = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, JsonSelectionEngine> eldest) {
+        return size() > SelectorCache.this.capacity;
+      }
+    };
+  }
+
+  /**
+   * The cache used by {@link JsonSelectionEngine#compile(String)}.
+   *
+   * @return the shared cache.
+   */
+  public static SelectorCache shared() {
+    return SHARED;
+  }
+
+  /**
+   * Gets the compiled selector, compiling it on a miss.
+   *
+   * @param selector the selector text.
+   * @return the compiled selector.
+   */
+  public JsonSelectionEngine get(String selector) {
+    JsonSelectionEngine engine;
+    synchronized (engines) {
+      engine = engines.get(selector);
+    }
+
+    if (engine != null) {
+      hits.increment();
+      return engine;
+    }
+
+    misses.increment();
+    try {
+      engine = new JsonSelectionEngine(selector);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    synchronized (engines) {
+      // Another thread may have compiled it meanwhile, keep the first one
+      JsonSelectionEngine existing = engines.putIfAbsent(selector, engine);
+      return existing != null ? existing : engine;
+    }
+  }
+
+  /**
+   * The number of lookups that found a compiled selector.
+   *
+   * @return the hit count.
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * The number of lookups that had to compile the selector.
+   *
+   * @return the miss count.
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * The number of selectors in the cache.
+   *
+   * @return the size.
+   */
+  public int size() {
+    synchronized (engines) {
+      return engines.size();
+    }
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Removes all selectors and resets the counts.
+   */
+  public void clear() {
+    synchronized (engines) {
+      engines.clear();
+    }
+
+    hits.reset();
+    misses.reset();
+  }
+}
@@ -0,0 +1,699 @@
+package dk.mehmedbasic.jsonast.selector;
+
+import com.steadystate.css.parser.selectors.AndConditionImpl;
+import com.steadystate.css.parser.selectors.ClassConditionImpl;
+import com.steadystate.css.parser.selectors.IdConditionImpl;
+import dk.mehmedbasic.jsonast.BaseNode;
+import dk.mehmedbasic.jsonast.JsonNodes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ObjLongConsumer;
+import org.w3c.css.sac.Condition;
+import org.w3c.css.sac.ConditionalSelector;
+import org.w3c.css.sac.DescendantSelector;
+import org.w3c.css.sac.ElementSelector;
+import org.w3c.css.sac.Selector;
+import org.w3c.css.sac.SelectorList;
+
+/**
+ * A selector compiled into a chain of steps, which is matched in a single walk of the tree.
+ * <br/><br/>
+ * The walk carries a bit mask of partial matches down the tree, like a streaming XPath matcher:
+ * bit i is set when steps 0 to i have matched on the ancestors of a node. A node matches step i
+ * when it passes the step and bit i - 1 is set, and it is selected when it matches the last step.
+ * The cost is one traversal, no matter how long the chain is.
+ * <br/><br/>
+ * A step is a name or the conditions on a node. The conditions of {@code name.class} apply to the
+ * descendants of the nodes named "name", as they always have, so it is compiled like
+ * {@code name .class}. A bare {@code *} selects the nodes before it, and the roots that are
+ * searched are never selected themselves.
+ * <br/><br/>
+ * A step after a child combinator, as in {@code a > b}, only looks at the parent, so the walk also
+ * carries the mask of the parent. When the first step can be looked up in the index and the rest
+ * are child steps, the matcher starts from the looked up nodes and only visits their children.
+ * <br/><br/>
+ * When the last step can be looked up, the matcher works right to left instead, as browsers do: the
+ * looked up nodes are the candidates, and each is verified by walking up its parents. The masks of
+ * the parents are remembered, so candidates that share ancestors do not walk them twice, and the
+ * cost is never more than a walk of the whole tree.
+ * <br/><br/>
+ * A group such as {@code a, b c} is compiled into one chain of steps, each selector starting a new
+ * run of bits, so the whole group is matched in the same walk and every node is selected once.
+ * Separate selectors that each need a walk are combined the same way by
+ * {@link #executeAll(List, JsonNodes)}, which tells their results apart by their last steps.
+ */
+final class SelectorMatcher {
+
+  /**
+   * The most steps a selector group can have, one bit each in the mask.
+   */
+  static final int MAX_STEPS = 64;
+
+  private final Step[] steps;
+  private final List<Integer> groupSizes;
+  private final int groups;
+  private final boolean selectsRoots;
+
+  private final long allSteps;
+  private final long firstSteps;
+  private final long lastSteps;
+  private final long childSteps;
+
+  private SelectorMatcher(List<Step> steps, List<Integer> groupSizes) {
+    if (steps.size() > MAX_STEPS) {
+      throw new UnsupportedOperationException(
+          "Selectors can have at most " + MAX_STEPS + " steps, got " + steps.size());
+    }
+
+    this.steps = steps.toArray(new Step[0]);
+    this.groupSizes = List.copyOf(groupSizes);
+    this.groups = groupSizes.size();
+    this.selectsRoots = groupSizes.contains(0);
+    this.allSteps = steps.size() == MAX_STEPS ? -1L : (1L << steps.size()) - 1;
+
+    long first = 0;
+    long last = 0;
+    int start = 0;
+    for (int size : groupSizes) {
+      if (size > 0) {
+        first |= 1L << start;
+        last |= 1L << (start + size - 1);
+      }
+      start += size;
+    }
+    this.firstSteps = first;
+    this.lastSteps = last;
+
+    long child = 0;
+    for (int i = 0; i < this.steps.length; i++) {
+      if (this.steps[i].child()) {
+        child |= 1L << i;
+      }
+    }
+    this.childSteps = child;
+  }
+
+  /**
+   * Compiles a parsed selector.
+   *
+   * @param selector the parsed selector.
+   * @param filters creates the filter of a condition.
+   * @return the matcher.
+   */
+  static SelectorMatcher compile(Selector selector, Function<Condition, NodeFilter> filters) {
+    List<Step> steps = new ArrayList<>();
+    flatten(selector, false, steps, filters);
+    return new SelectorMatcher(steps, List.of(steps.size()));
+  }
+
+  /**
+   * Compiles a group of selectors, which select the union of what each selector selects.
+   *
+   * @param selectors the parsed selectors.
+   * @param filters creates the filter of a condition.
+   * @return the matcher.
+   */
+  static SelectorMatcher compile(SelectorList selectors, Function<Condition, NodeFilter> filters) {
+    List<Step> steps = new ArrayList<>();
+    List<Integer> groupSizes = new ArrayList<>(selectors.getLength());
+    for (int i = 0; i < selectors.getLength(); i++) {
+      int before = steps.size();
+      flatten(selectors.item(i), false, steps, filters);
+      groupSizes.add(steps.size() - before);
+    }
+
+    return new SelectorMatcher(steps, groupSizes);
+  }
+
+  /**
+   * Combines matchers into one group, which selects the union of what they select.
+   */
+  private static SelectorMatcher combine(List<SelectorMatcher> matchers) {
+    List<Step> steps = new ArrayList<>();
+    List<Integer> groupSizes = new ArrayList<>();
+    for (SelectorMatcher matcher : matchers) {
+      steps.addAll(Arrays.asList(matcher.steps));
+      groupSizes.addAll(matcher.groupSizes);
+    }
+
+    return new SelectorMatcher(steps, groupSizes);
+  }
+
+  /**
+   * Adds the steps of a selector. A bare {@code *} is dropped, unless it is next to a child
+   * combinator, where it stands for exactly one level.
+   */
+  private static void flatten(Selector selector, boolean keepUniversal, List<Step> steps,
+      Function<Condition, NodeFilter> filters) {
+    if (selector instanceof DescendantSelector descendantSelector) {
+      boolean child = descendantSelector.getSelectorType() == Selector.SAC_CHILD_SELECTOR;
+      flatten(descendantSelector.getAncestorSelector(), child, steps, filters);
+      addStep(descendantSelector.getSimpleSelector(), child, keepUniversal || child, steps,
+          filters);
+    } else {
+      addStep(selector, false, keepUniversal, steps, filters);
+    }
+  }
+
+  private static void addStep(Selector selector, boolean child, boolean keepUniversal,
+      List<Step> steps, Function<Condition, NodeFilter> filters) {
+    if (selector instanceof ConditionalSelector conditionalSelector) {
+      Condition condition = conditionalSelector.getCondition();
+      String name = nameOf(conditionalSelector.getSimpleSelector());
+      boolean conditionChild = child;
+      if (name != null) {
+        // The condition of name.class applies to the descendants of the named nodes
+        steps.add(new Step(name, null, null, child, false));
+        conditionChild = false;
+      }
+      steps.add(new Step(null, condition, filters.apply(condition), conditionChild,
+          JsonSelectionEngine.hasValueConditions(condition)));
+    } else if (selector instanceof ElementSelector elementSelector) {
+      if (elementSelector.getLocalName() != null || keepUniversal) {
+        steps.add(new Step(elementSelector.getLocalName(), null, null, child, false));
+      }
+    } else {
+      throw unsupported(selector);
+    }
+  }
+
+  private static String nameOf(Selector selector) {
+    if (selector instanceof ElementSelector elementSelector) {
+      return elementSelector.getLocalName();
+    }
+
+    throw unsupported(selector);
+  }
+
+  private static UnsupportedOperationException unsupported(Selector selector) {
+    return new UnsupportedOperationException(
+        "The given CSS selector is not supported: " + selector.getClass().getName() + ", "
+            + selector);
+  }
+
+  /**
+   * Selects the matching nodes below the given roots, in document order.
+   *
+   * @param roots the roots to search.
+   * @return the selected nodes.
+   */
+  JsonNodes execute(JsonNodes roots) {
+    if (groups == 1 && steps.length == 0) {
+      return roots.select(null);
+    } else if (groups == 1 && steps.length == 1) {
+      return executeSingle(steps[0], roots);
+    }
+
+    JsonNodes result = new JsonNodes();
+    result.setDocument(roots.getDocument());
+    if (groups > 1 || !executeRightToLeft(roots, result.getRoots())
+        && (childSteps != allSteps - 1 || !executeChildChain(roots, result.getRoots()))) {
+      walk(roots, result.getRoots());
+    }
+    return result;
+  }
+
+  /**
+   * Selects with several matchers, in as few walks of the tree as possible. The matchers that look
+   * their nodes up run on their own, and the ones that need a walk are combined, so one walk
+   * selects for all of them.
+   *
+   * @param matchers the matchers.
+   * @param roots the roots to search.
+   * @return the nodes each matcher selects, in the order of the matchers.
+   */
+  static List<JsonNodes> executeAll(List<SelectorMatcher> matchers, JsonNodes roots) {
+    JsonNodes[] results = new JsonNodes[matchers.size()];
+    List<Integer> walked = new ArrayList<>();
+    for (int i = 0; i < matchers.size(); i++) {
+      SelectorMatcher matcher = matchers.get(i);
+      if (matcher.groups == 1 && (matcher.steps.length <= 1 || matcher.runsRightToLeft(roots))) {
+        results[i] = matcher.execute(roots);
+      } else {
+        walked.add(i);
+      }
+    }
+
+    int from = 0;
+    while (from < walked.size()) {
+      // Each walk can match as many steps as there are bits in the mask
+      int to = from;
+      int stepCount = 0;
+      while (to < walked.size()
+          && stepCount + matchers.get(walked.get(to)).steps.length <= MAX_STEPS) {
+        stepCount += matchers.get(walked.get(to)).steps.length;
+        to++;
+      }
+
+      List<Integer> chunk = walked.subList(from, to);
+      if (chunk.size() == 1) {
+        results[chunk.get(0)] = matchers.get(chunk.get(0)).execute(roots);
+      } else {
+        executeCombined(matchers, chunk, roots, results);
+      }
+      from = to;
+    }
+
+    return Arrays.asList(results);
+  }
+
+  private static void executeCombined(List<SelectorMatcher> matchers, List<Integer> chunk,
+      JsonNodes roots, JsonNodes[] results) {
+    List<SelectorMatcher> parts = new ArrayList<>(chunk.size());
+    long[] lasts = new long[chunk.size()];
+    int offset = 0;
+    for (int i = 0; i < chunk.size(); i++) {
+      SelectorMatcher part = matchers.get(chunk.get(i));
+      parts.add(part);
+      lasts[i] = part.lastSteps << offset;
+      offset += part.steps.length;
+
+      results[chunk.get(i)] = new JsonNodes();
+      results[chunk.get(i)].setDocument(roots.getDocument());
+    }
+
+    SelectorMatcher combined = combine(parts);
+    Set<BaseNode> exclusions = roots.getExclusions();
+    for (BaseNode root : roots) {
+      if (exclusions.contains(root)) {
+        continue;
+      }
+
+      for (int i = 0; i < parts.size(); i++) {
+        if (parts.get(i).selectsRoots) {
+          results[chunk.get(i)].getRoots().add(root);
+        }
+      }
+
+      combined.walkMatches(root, 0, 0, exclusions, (node, matched) -> {
+        for (int i = 0; i < lasts.length; i++) {
+          if ((matched & lasts[i]) != 0) {
+            results[chunk.get(i)].getRoots().add(node);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Whether the last step can be looked up, and the roots are top level nodes, so the walk up from
+   * a candidate ends at a root.
+   */
+  private boolean runsRightToLeft(JsonNodes roots) {
+    Step last = steps[steps.length - 1];
+    if (last.name() == null && !hasSeed(last.condition())) {
+      return false;
+    }
+
+    for (BaseNode root : roots) {
+      if (root.getParent() != null) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Matches the last step first, then verifies the candidates against the steps before it by
+   * walking up their parents.
+   *
+   * @return false if the last step cannot be looked up, or the roots are not top level nodes.
+   */
+  private boolean executeRightToLeft(JsonNodes roots, Set<BaseNode> selected) {
+    Step last = steps[steps.length - 1];
+    if (!runsRightToLeft(roots)) {
+      return false;
+    }
+
+    Map<BaseNode, State> states = new IdentityHashMap<>();
+    List<BaseNode> path = new ArrayList<>();
+    for (BaseNode candidate : executeSingle(last, roots)) {
+      State state = stateAbove(candidate, states, path);
+      long matched = match(candidate, indexOf(candidate), state.inherited(), state.parent());
+      if (selects(matched)) {
+        selected.add(candidate);
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Gets the masks a node inherits from its ancestors, computing the masks of the ancestors that
+   * are not known yet from the top down.
+   */
+  private State stateAbove(BaseNode node, Map<BaseNode, State> states, List<BaseNode> path) {
+    path.clear();
+    State state = null;
+    for (BaseNode parent = node.getParent(); parent != null; parent = parent.getParent()) {
+      state = states.get(parent);
+      if (state != null) {
+        break;
+      }
+      path.add(parent);
+    }
+
+    for (int i = path.size() - 1; i >= 0; i--) {
+      BaseNode ancestor = path.get(i);
+      if (ancestor.getParent() == null) {
+        // Roots are never matched
+        state = State.NONE;
+      } else {
+        long matched = match(ancestor, indexOf(ancestor), state.inherited(), state.parent());
+        state = new State(state.inherited() | matched, matched);
+      }
+      states.put(ancestor, state);
+    }
+
+    return state;
+  }
+
+  private static Integer indexOf(BaseNode node) {
+    BaseNode parent = node.getParent();
+    return parent != null && parent.isArray() ? parent.getChildren().indexOf(node) : null;
+  }
+
+  /**
+   * Matches a chain like {@code a > b > c} from the nodes of the first step, looking only at the
+   * children of the nodes matched so far.
+   *
+   * @return false if the first step cannot be looked up, or its nodes are nested in each other,
+   * in which case the result would not be in document order.
+   */
+  private boolean executeChildChain(JsonNodes roots, Set<BaseNode> selected) {
+    Step first = steps[0];
+    if (first.name() == null && seed(first.condition(), roots) == null) {
+      return false;
+    }
+
+    List<BaseNode> matched = new ArrayList<>(executeSingle(first, roots).getRoots());
+    Set<BaseNode> seeds = Collections.newSetFromMap(new IdentityHashMap<>());
+    seeds.addAll(matched);
+    for (BaseNode node : matched) {
+      for (BaseNode parent = node.getParent(); parent != null; parent = parent.getParent()) {
+        if (seeds.contains(parent)) {
+          return false;
+        }
+      }
+    }
+
+    Set<BaseNode> exclusions = roots.getExclusions();
+    for (int step = 1; step < steps.length && !matched.isEmpty(); step++) {
+      List<BaseNode> next = new ArrayList<>();
+      for (BaseNode node : matched) {
+        List<BaseNode> children = node.getChildren();
+        for (int i = 0; i < children.size(); i++) {
+          BaseNode child = children.get(i);
+          if (!exclusions.contains(child)
+              && steps[step].matches(child, node.isArray() ? i : null)) {
+            next.add(child);
+          }
+        }
+      }
+      matched = next;
+    }
+
+    selected.addAll(matched);
+    return true;
+  }
+
+  /**
+   * A single step is looked up by name, class or id, which the document answers from its index.
+   */
+  private static JsonNodes executeSingle(Step step, JsonNodes roots) {
+    JsonNodes candidates;
+    if (step.name() != null) {
+      candidates = roots.findByName(step.name());
+      if (step.filter() == null) {
+        return candidates;
+      }
+    } else {
+      candidates = seed(step.condition(), roots);
+      if (candidates == null) {
+        return roots.filter(step.filter());
+      } else if (isSeed(step.condition())) {
+        return candidates;
+      }
+    }
+
+    return candidates.filterRoots(step.filter());
+  }
+
+  private static boolean isSeed(Condition condition) {
+    return condition instanceof ClassConditionImpl || condition instanceof IdConditionImpl;
+  }
+
+  private static boolean hasSeed(Condition condition) {
+    if (condition instanceof AndConditionImpl andCondition) {
+      return hasSeed(andCondition.getFirstCondition())
+          || hasSeed(andCondition.getSecondCondition());
+    }
+
+    return isSeed(condition);
+  }
+
+  /**
+   * Finds the nodes with a class or id from the condition, or null if it has neither.
+   */
+  private static JsonNodes seed(Condition condition, JsonNodes roots) {
+    if (condition instanceof IdConditionImpl idCondition) {
+      return roots.findById(idCondition.getValue());
+    } else if (condition instanceof ClassConditionImpl classCondition) {
+      return roots.findByClass(classCondition.getValue());
+    } else if (condition instanceof AndConditionImpl andCondition) {
+      JsonNodes seeded = seed(andCondition.getFirstCondition(), roots);
+      return seeded != null ? seeded : seed(andCondition.getSecondCondition(), roots);
+    }
+
+    return null;
+  }
+
+  /**
+   * Walks the subtrees of the roots in pre-order, with an explicit stack so deep trees do not
+   * overflow the call stack.
+   */
+  private void walk(JsonNodes roots, Set<BaseNode> selected) {
+    Set<BaseNode> exclusions = roots.getExclusions();
+    for (BaseNode root : roots) {
+      if (exclusions.contains(root)) {
+        continue;
+      }
+
+      if (selectsRoots) {
+        // A bare * in the group selects the roots, as it does on its own
+        selected.add(root);
+      }
+
+      walkBelow(root, 0, 0, exclusions, selected::add);
+    }
+  }
+
+  /**
+   * Selects from the subtree of a node, the node included, as a walk from the top of its tree
+   * would. The masks of the ancestors are found by walking up the parents.
+   *
+   * @param node the node.
+   * @param selected receives the selected nodes in document order.
+   */
+  void selectSubtree(BaseNode node, Consumer<BaseNode> selected) {
+    if (node.getParent() == null) {
+      if (selectsRoots) {
+        selected.accept(node);
+      }
+      walkBelow(node, 0, 0, Set.of(), selected);
+      return;
+    }
+
+    State state = stateAbove(node, new IdentityHashMap<>(), new ArrayList<>());
+    long matched = match(node, indexOf(node), state.inherited(), state.parent());
+    if (selects(matched)) {
+      selected.accept(node);
+    }
+    walkBelow(node, state.inherited() | matched, matched, Set.of(), selected);
+  }
+
+  /**
+   * Walks the subtree below a node, given the masks the node passes to its children.
+   *
+   * @param node the node to walk below.
+   * @param inherited the steps matched by the node and its ancestors.
+   * @param parent the steps matched by the node.
+   * @param exclusions the nodes to skip along with their subtrees.
+   * @param selected receives the selected nodes in document order.
+   */
+  void walkBelow(BaseNode node, long inherited, long parent, Set<BaseNode> exclusions,
+      Consumer<BaseNode> selected) {
+    walkMatches(node, inherited, parent, exclusions, (current, matched) -> {
+      if (selects(matched)) {
+        selected.accept(current);
+      }
+    });
+  }
+
+  /**
+   * Walks the subtree below a node, handing every node and the steps it matched to the consumer.
+   */
+  private void walkMatches(BaseNode node, long inherited, long parent, Set<BaseNode> exclusions,
+      ObjLongConsumer<BaseNode> consumer) {
+    Stack stack = new Stack();
+    stack.pushChildren(node, inherited, parent);
+    while (stack.size > 0) {
+      int top = --stack.size;
+      BaseNode current = stack.nodes[top];
+      long currentInherited = stack.masks[top];
+      long currentParent = stack.parentMasks[top];
+      int index = stack.indexes[top];
+      stack.nodes[top] = null;
+
+      if (exclusions.contains(current)) {
+        continue;
+      }
+
+      long matched = match(current, index < 0 ? null : index, currentInherited, currentParent);
+      consumer.accept(current, matched);
+
+      stack.pushChildren(current, currentInherited | matched, matched);
+    }
+  }
+
+  /**
+   * Whether a bare {@code *} in the group selects the roots themselves.
+   *
+   * @return true or false.
+   */
+  boolean selectsRoots() {
+    return selectsRoots;
+  }
+
+  /**
+   * Whether a node that matched the given steps is selected.
+   *
+   * @param matched the steps the node matched.
+   * @return true if the node completed a selector of the group.
+   */
+  boolean selects(long matched) {
+    return (matched & lastSteps) != 0;
+  }
+
+  /**
+   * Whether matching a node may look at the values of its properties, as in {@code [name=value]},
+   * given the steps matched by its ancestors and by its parent.
+   *
+   * @param inherited the steps matched by the ancestors.
+   * @param parent the steps matched by the parent.
+   * @return true if a step with a value condition is a candidate.
+   */
+  boolean mayReadValues(long inherited, long parent) {
+    long candidates = candidates(inherited, parent);
+    while (candidates != 0) {
+      int step = Long.numberOfTrailingZeros(candidates);
+      candidates &= candidates - 1;
+
+      if (steps[step].values()) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Gets the steps the node matches, given the steps matched by its ancestors and by its parent.
+   * The first step of each selector in the group is always a candidate.
+   *
+   * @param node the node to match.
+   * @param index the index of the node in its array, or null.
+   * @param inherited the steps matched by the ancestors.
+   * @param parent the steps matched by the parent.
+   * @return the steps the node matched.
+   */
+  long match(BaseNode node, Integer index, long inherited, long parent) {
+    long candidates = candidates(inherited, parent);
+    long matched = 0;
+    while (candidates != 0) {
+      int step = Long.numberOfTrailingZeros(candidates);
+      candidates &= candidates - 1;
+
+      if (steps[step].matches(node, index)) {
+        matched |= 1L << step;
+      }
+    }
+
+    return matched;
+  }
+
+  private long candidates(long inherited, long parent) {
+    long continued = ((inherited << 1) & ~childSteps) | ((parent << 1) & childSteps);
+    return ((continued & ~firstSteps) | firstSteps) & allSteps;
+  }
+
+  /**
+   * A name and the conditions on the same node, either may be null. A child step must match a
+   * child of a node matching the step before it, any other step a descendant.
+   */
+  private record Step(String name, Condition condition, NodeFilter filter, boolean child,
+                      boolean values) {
+
+    boolean matches(BaseNode node, Integer index) {
+      if (name != null && !Objects.equals(name, node.getIdentifier().getName())) {
+        return false;
+      }
+
+      return filter == null || filter.apply(node, index);
+    }
+  }
+
+  /**
+   * The masks passed from a node to its children: the steps matched by the node and its ancestors,
+   * and the steps matched by the node itself.
+   */
+  private record State(long inherited, long parent) {
+
+    static final State NONE = new State(0, 0);
+  }
+
+  /**
+   * The pending nodes of the walk, with their inherited masks and array indexes.
+   */
+  private static final class Stack {
+
+    private BaseNode[] nodes = new BaseNode[32];
+    private long[] masks = new long[32];
+    private long[] parentMasks = new long[32];
+    private int[] indexes = new int[32];
+    private int size;
+
+    /**
+     * Pushes the children in reverse, so they are popped in order.
+     */
+    private void pushChildren(BaseNode node, long mask, long parentMask) {
+      List<BaseNode> children = node.getChildren();
+      boolean array = node.isArray();
+      int count = children.size();
+      if (size + count > nodes.length) {
+        int capacity = Math.max(nodes.length * 2, size + count);
+        nodes = Arrays.copyOf(nodes, capacity);
+        masks = Arrays.copyOf(masks, capacity);
+        parentMasks = Arrays.copyOf(parentMasks, capacity);
+        indexes = Arrays.copyOf(indexes, capacity);
+      }
+
+      for (int i = count - 1; i >= 0; i--) {
+        nodes[size] = children.get(i);
+        masks[size] = mask;
+        parentMasks[size] = parentMask;
+        indexes[size] = array ? i : -1;
+        size++;
+      }
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package dk.mehmedbasic.jsonast.selector;
+
+import dk.mehmedbasic.jsonast.BaseNode;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Matches a compiled selector one node at a time, for readers that see the nodes in document order
+ * without a tree, like the {@link StreamingSelector}.
+ * <br/><br/>
+ * The reader keeps two masks per open container: the steps matched by the container and its
+ * ancestors, and the steps matched by the container alone. The masks of a root are zero, and the
+ * masks passed to the children of a node are the inherited mask with the matched steps added, and
+ * the matched steps. The masks are opaque, only the matcher that made them can read them.
+ */
+public final class StreamMatcher {
+
+  private final SelectorMatcher matcher;
+
+  StreamMatcher(SelectorMatcher matcher) {
+    this.matcher = matcher;
+  }
+
+  /**
+   * Whether a bare {@code *} in the group selects the roots themselves.
+   *
+   * @return true or false.
+   */
+  public boolean selectsRoots() {
+    return matcher.selectsRoots();
+  }
+
+  /**
+   * Gets the steps a node matches.
+   *
+   * @param node the node, its children are not looked at.
+   * @param index the index of the node in its array, or null.
+   * @param inherited the steps matched by the ancestors.
+   * @param parent the steps matched by the parent.
+   * @return the steps the node matched.
+   */
+  public long match(BaseNode node, Integer index, long inherited, long parent) {
+    return matcher.match(node, index, inherited, parent);
+  }
+
+  /**
+   * Whether a node that matched the given steps is selected.
+   *
+   * @param matched the steps the node matched.
+   * @return true or false.
+   */
+  public boolean selects(long matched) {
+    return matcher.selects(matched);
+  }
+
+  /**
+   * Whether matching the children of a container may look at the values of their properties, as
+   * in {@code [name=value]}, so they must be read before they can be matched.
+   *
+   * @param inherited the steps matched by the container and its ancestors.
+   * @param parent the steps matched by the container.
+   * @return true or false.
+   */
+  public boolean mayReadValues(long inherited, long parent) {
+    return matcher.mayReadValues(inherited, parent);
+  }
+
+  /**
+   * Selects from the subtree below a node that has been read in full.
+   *
+   * @param node the node.
+   * @param inherited the steps matched by the node and its ancestors.
+   * @param parent the steps matched by the node.
+   * @param selected receives the selected nodes in document order.
+   */
+  public void selectBelow(BaseNode node, long inherited, long parent,
+      Consumer<BaseNode> selected) {
+    matcher.walkBelow(node, inherited, parent, Set.of(), selected);
+  }
+}
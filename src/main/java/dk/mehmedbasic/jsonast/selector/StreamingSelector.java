@@ -0,0 +1,186 @@
+package dk.mehmedbasic.jsonast.selector;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import dk.mehmedbasic.jsonast.BaseNode;
+import dk.mehmedbasic.jsonast.conversion.BaseNodeParser;
+import dk.mehmedbasic.jsonast.conversion.ConversionNamingStrategy;
+import dk.mehmedbasic.jsonast.conversion.InlineIdsNamingStrategy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Selects nodes straight from a JSON token stream, without building the document.
+ * <br/><br/>
+ * The selector is matched against the names, ids and classes of the values as they are read, with
+ * the same masks the tree walk of {@link SelectorMatcher} uses. Only the selected values are read
+ * into nodes, along with their subtrees, so the memory used is bounded by the depth of the input
+ * and the size of the selected values. Values selected inside a selected value are reported as
+ * nodes of the outer value, right after it.
+ * <br/><br/>
+ * The identifiers are the ones a {@link BaseNodeParser} with the same naming strategy creates, so
+ * a streaming selection selects the same values as selecting in the parsed document. Selectors that
+ * look at the values of properties, as in {@code [name=value]}, need the whole object and are not
+ * supported.
+ */
+public final class StreamingSelector {
+
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  private final SelectorMatcher matcher;
+  private final BaseNodeParser nodeParser;
+
+  /**
+   * Creates a streaming selector with the naming strategy of {@link
+   * dk.mehmedbasic.jsonast.JsonDocument#parse(InputStream)}.
+   *
+   * @param selector the selector.
+   */
+  public StreamingSelector(String selector) {
+    this(JsonSelectionEngine.compile(selector), new InlineIdsNamingStrategy());
+  }
+
+  public StreamingSelector(JsonSelectionEngine engine, ConversionNamingStrategy strategy) {
+    if (engine.hasValueConditions()) {
+      throw new UnsupportedOperationException(
+          "Selectors on property values cannot be streamed: " + engine.parse());
+    }
+
+    this.matcher = engine.getMatcher();
+    this.nodeParser = new BaseNodeParser(strategy);
+  }
+
+  /**
+   * Selects from the given input. The stream is closed afterwards.
+   *
+   * @param inputStream the stream to read.
+   * @return the selected nodes in document order.
+   */
+  public List<BaseNode> select(InputStream inputStream) throws IOException {
+    List<BaseNode> result = new ArrayList<>();
+    try (JsonParser parser = FACTORY.createParser(inputStream)) {
+      select(parser, result::add);
+    }
+
+    return result;
+  }
+
+  /**
+   * Selects from the rest of the given parser, handing each selected node to the consumer as soon
+   * as it has been read.
+   *
+   * @param parser the parser to read from.
+   * @param consumer receives the selected nodes in document order.
+   */
+  public void select(JsonParser parser, Consumer<BaseNode> consumer) throws IOException {
+    if (matcher == null) {
+      return;
+    }
+
+    Frames frames = new Frames();
+    String fieldName = null;
+    JsonToken token;
+    while ((token = parser.nextToken()) != null) {
+      switch (token) {
+        case FIELD_NAME -> fieldName = parser.getCurrentName();
+        case END_OBJECT, END_ARRAY -> frames.pop();
+        default -> {
+          if (frames.size == 0) {
+            readRoot(parser, token, frames, consumer);
+          } else {
+            readChild(parser, token, fieldName, frames, consumer);
+          }
+          fieldName = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * The roots are never selected, unless a bare {@code *} selects them.
+   */
+  private void readRoot(JsonParser parser, JsonToken token, Frames frames,
+      Consumer<BaseNode> consumer) throws IOException {
+    if (matcher.selectsRoots()) {
+      BaseNode root = nodeParser.readNode(parser, null);
+      consumer.accept(root);
+      matcher.walkBelow(root, 0, 0, Set.of(), consumer);
+    } else if (token.isStructStart()) {
+      frames.push(0, 0, token == JsonToken.START_ARRAY);
+    }
+  }
+
+  private void readChild(JsonParser parser, JsonToken token, String fieldName, Frames frames,
+      Consumer<BaseNode> consumer) throws IOException {
+    Integer index = frames.nextIndex();
+    boolean container = token.isStructStart();
+    BaseNode node = container
+        ? nodeParser.readEmptyContainer(parser, fieldName)
+        : nodeParser.readNode(parser, fieldName);
+
+    long matched = matcher.match(node, index, frames.inherited(), frames.parent());
+    long inherited = frames.inherited() | matched;
+    if (matcher.selects(matched)) {
+      if (container) {
+        node = nodeParser.readNode(parser, fieldName);
+      }
+
+      consumer.accept(node);
+      matcher.walkBelow(node, inherited, matched, Set.of(), consumer);
+    } else if (container) {
+      frames.push(inherited, matched, token == JsonToken.START_ARRAY);
+    }
+  }
+
+  /**
+   * The masks of the open objects and arrays, and the index of the next element of each array.
+   */
+  private static final class Frames {
+
+    private long[] inherited = new long[16];
+    private long[] parents = new long[16];
+    private int[] indexes = new int[16];
+    private int size;
+
+    private void push(long inheritedMask, long parentMask, boolean array) {
+      if (size == inherited.length) {
+        inherited = Arrays.copyOf(inherited, size * 2);
+        parents = Arrays.copyOf(parents, size * 2);
+        indexes = Arrays.copyOf(indexes, size * 2);
+      }
+
+      inherited[size] = inheritedMask;
+      parents[size] = parentMask;
+      indexes[size] = array ? 0 : -1;
+      size++;
+    }
+
+    private void pop() {
+      size--;
+    }
+
+    private long inherited() {
+      return inherited[size - 1];
+    }
+
+    private long parent() {
+      return parents[size - 1];
+    }
+
+    private Integer nextIndex() {
+      int index = indexes[size - 1];
+      if (index < 0) {
+        return null;
+      }
+
+      indexes[size - 1] = index + 1;
+      return index;
+    }
+  }
+}
@@ -10,6 +10,9 @@ import java.util.Objects;
 
 /**
  * Adds a value
+ * <br/><br/>
+ * Every selected node gets a node of its own. A node given as the value is a template, which is
+ * copied for each of them and left as it is.
  */
 final class AddValue extends TransformationFunction {
 
@@ -25,10 +28,25 @@ final class AddValue extends TransformationFunction {
 
   @Override
   public void apply(JsonDocument document, JsonNodes root) {
+    LinkedHashSet<BaseNode> roots = new LinkedHashSet<>(root.getRoots());
+    for (BaseNode node : roots) {
+      BaseNode newChild = createChild();
+      node.addChild(newChild);
+
+      TransformationFunction.nodeChanged(root, node);
+      TransformationFunction.nodeChanged(root, newChild);
+    }
+  }
+
+  /**
+   * Creates the child to add, a new node every time. A node given as the value is copied.
+   *
+   * @return the named child.
+   */
+  BaseNode createChild() {
     BaseNode newChild;
     if (value instanceof BaseNode node) {
-      // Verbatim addition
-      newChild = node;
+      newChild = node.deepCopy();
       newChild.getIdentifier().setName(name);
     } else {
       newChild = createNode();
@@ -48,13 +66,7 @@ final class AddValue extends TransformationFunction {
       }
     }
 
-    LinkedHashSet<BaseNode> roots = new LinkedHashSet<>(root.getRoots());
-    for (BaseNode node : roots) {
-      node.addChild(newChild);
-
-      TransformationFunction.nodeChanged(root, node);
-      TransformationFunction.nodeChanged(root, newChild);
-    }
+    return newChild;
   }
 
   private BaseNode createNode() {
@@ -0,0 +1,123 @@
+package dk.mehmedbasic.jsonast.transform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The outcome of a run of a {@link BatchTransformer}: the documents that failed, and counters for
+ * throughput and latency.
+ * <br/><br/>
+ * The latency of a document is the time from opening it until it has been written, so it includes
+ * parsing, transforming and serializing, but not the time spent waiting for a thread.
+ */
+public final class BatchResult {
+
+  private final LongAdder succeeded = new LongAdder();
+  private final LongAdder totalLatency = new LongAdder();
+  private final AtomicLong maxLatency = new AtomicLong();
+  private final ConcurrentLinkedQueue<Failure> failures = new ConcurrentLinkedQueue<>();
+  private final long start = System.nanoTime();
+  private volatile long end;
+
+  BatchResult() {
+  }
+
+  void succeeded(long latencyNanos) {
+    succeeded.increment();
+    totalLatency.add(latencyNanos);
+    maxLatency.accumulateAndGet(latencyNanos, Math::max);
+  }
+
+  void failed(String name, Throwable cause) {
+    failures.add(new Failure(name, cause));
+  }
+
+  void finish() {
+    end = System.nanoTime();
+  }
+
+  /**
+   * Gets the number of documents transformed and written.
+   *
+   * @return the count.
+   */
+  public long getSucceeded() {
+    return succeeded.sum();
+  }
+
+  /**
+   * Gets the number of documents that could not be read, transformed or written.
+   *
+   * @return the count.
+   */
+  public long getFailed() {
+    return failures.size();
+  }
+
+  /**
+   * Gets the documents that failed, in the order they failed.
+   *
+   * @return the failures.
+   */
+  public List<Failure> getFailures() {
+    return new ArrayList<>(failures);
+  }
+
+  /**
+   * Gets the time from the start of the run until the last document was done.
+   *
+   * @return the elapsed time in nanoseconds.
+   */
+  public long getElapsedNanos() {
+    return (end == 0 ? System.nanoTime() : end) - start;
+  }
+
+  /**
+   * Gets the number of documents transformed per second of the run.
+   *
+   * @return the throughput.
+   */
+  public double getDocumentsPerSecond() {
+    long elapsed = getElapsedNanos();
+    return elapsed == 0 ? 0 : getSucceeded() * 1e9 / elapsed;
+  }
+
+  /**
+   * Gets the average latency of the documents transformed.
+   *
+   * @return the latency in nanoseconds, 0 if none were transformed.
+   */
+  public long getAverageLatencyNanos() {
+    long count = getSucceeded();
+    return count == 0 ? 0 : totalLatency.sum() / count;
+  }
+
+  /**
+   * Gets the highest latency of the documents transformed.
+   *
+   * @return the latency in nanoseconds.
+   */
+  public long getMaxLatencyNanos() {
+    return maxLatency.get();
+  }
+
+  @Override
+  public String toString() {
+    return "BatchResult{succeeded=" + getSucceeded() + ", failed=" + getFailed()
+        + ", documentsPerSecond=" + Math.round(getDocumentsPerSecond())
+        + ", averageLatencyNanos=" + getAverageLatencyNanos()
+        + ", maxLatencyNanos=" + getMaxLatencyNanos() + '}';
+  }
+
+  /**
+   * A document that failed.
+   *
+   * @param name the file name of the document, or its position in the input.
+   * @param cause what went wrong.
+   */
+  public record Failure(String name, Throwable cause) {
+  }
+}
@@ -0,0 +1,322 @@
+package dk.mehmedbasic.jsonast.transform;
+
+import dk.mehmedbasic.jsonast.JsonDocument;
+import dk.mehmedbasic.jsonast.conversion.BaseNodeParser;
+import dk.mehmedbasic.jsonast.conversion.BaseNodeWriter;
+import dk.mehmedbasic.jsonast.conversion.ConversionNamingStrategy;
+import dk.mehmedbasic.jsonast.conversion.InlineIdsNamingStrategy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Transforms a batch of documents on an executor.
+ * <br/><br/>
+ * Each document is parsed, transformed and written by one task, so the documents are transformed in
+ * parallel when the executor has several threads. Any executor can be used, a thread pool or a
+ * virtual thread per task executor where the runtime has them. At most a given number of documents
+ * are open at a time: the next one is not opened until one of them has been written, so the memory
+ * used is bounded however many documents the batch has.
+ * <br/><br/>
+ * A document that cannot be read, transformed or written is reported in the {@link BatchResult},
+ * and the rest of the batch carries on. Errors are reported too, so a document that overflows the
+ * stack fails on its own. The transformation must be safe to apply to several documents at once,
+ * which plans and version controls are.
+ */
+public final class BatchTransformer {
+
+  private final Consumer<JsonDocument> transformation;
+  private final BaseNodeParser parser;
+  private final BaseNodeWriter writer;
+  private final Executor executor;
+  private final int maxInFlight;
+
+  /**
+   * Creates a batch transformer that applies the given plan.
+   *
+   * @param plan the plan.
+   * @param executor runs the tasks.
+   * @param maxInFlight the most documents open at a time.
+   */
+  public BatchTransformer(TransformationPlan plan, Executor executor, int maxInFlight) {
+    this(plan::apply, new InlineIdsNamingStrategy(), executor, maxInFlight);
+  }
+
+  /**
+   * Creates a batch transformer that migrates the documents to the given version.
+   *
+   * @param control the version control.
+   * @param version the version to migrate to.
+   * @param executor runs the tasks.
+   * @param maxInFlight the most documents open at a time.
+   */
+  public BatchTransformer(VersionControl control, int version, Executor executor,
+      int maxInFlight) {
+    this(document -> control.apply(document, version), new InlineIdsNamingStrategy(), executor,
+        maxInFlight);
+  }
+
+  /**
+   * Creates a batch transformer.
+   *
+   * @param transformation transforms a document in place.
+   * @param strategy the naming strategy used to read and write the documents.
+   * @param executor runs the tasks.
+   * @param maxInFlight the most documents open at a time.
+   */
+  public BatchTransformer(Consumer<JsonDocument> transformation, ConversionNamingStrategy strategy,
+      Executor executor, int maxInFlight) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("At least one document must be in flight: " + maxInFlight);
+    }
+
+    this.transformation = transformation;
+    this.parser = new BaseNodeParser(strategy);
+    this.writer = new BaseNodeWriter(strategy);
+    this.executor = executor;
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Transforms the {@code .json} files of a directory, not including subdirectories, and writes
+   * each to a file with the same name in the output directory. The output directory may be the
+   * input directory, a file is only replaced once its transformed version has been written.
+   *
+   * @param directory the directory to read.
+   * @param outputDirectory the directory to write to.
+   * @return the result, once every document is done.
+   */
+  public BatchResult transformDirectory(Path directory, Path outputDirectory)
+      throws IOException, InterruptedException {
+    List<Path> paths = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.json")) {
+      for (Path path : files) {
+        if (Files.isRegularFile(path)) {
+          paths.add(path);
+        }
+      }
+    }
+
+    return transform(paths, outputDirectory);
+  }
+
+  /**
+   * Transforms the given files, and writes each to a file with the same name in the output
+   * directory.
+   *
+   * @param paths the files to read.
+   * @param outputDirectory the directory to write to.
+   * @return the result, once every document is done.
+   */
+  public BatchResult transform(List<Path> paths, Path outputDirectory)
+      throws InterruptedException {
+    Iterator<Path> iterator = paths.iterator();
+    return run(new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public Item next() {
+        Path path = iterator.next();
+        return new PathItem(path, outputDirectory.resolve(path.getFileName()));
+      }
+    });
+  }
+
+  /**
+   * Transforms the documents of the given streams. The document read from the stream at a given
+   * position is written to the output stream created for that position. Both streams are closed
+   * afterwards.
+   *
+   * @param inputs the documents, one per stream.
+   * @param outputs creates the output stream for a position.
+   * @return the result, once every document is done.
+   */
+  public BatchResult transform(Iterator<? extends InputStream> inputs,
+      IntFunction<? extends OutputStream> outputs) throws InterruptedException {
+    return run(new Iterator<>() {
+      private int position;
+
+      @Override
+      public boolean hasNext() {
+        return inputs.hasNext();
+      }
+
+      @Override
+      public Item next() {
+        return new StreamItem(position++, inputs.next(), outputs);
+      }
+    });
+  }
+
+  private BatchResult run(Iterator<Item> items) throws InterruptedException {
+    BatchResult result = new BatchResult();
+    Semaphore inFlight = new Semaphore(maxInFlight);
+    try {
+      while (items.hasNext()) {
+        inFlight.acquire();
+        boolean submitted = false;
+        try {
+          Item item = items.next();
+          executor.execute(() -> {
+            try {
+              transform(item, result);
+            } finally {
+              inFlight.release();
+            }
+          });
+          submitted = true;
+        } finally {
+          if (!submitted) {
+            inFlight.release();
+          }
+        }
+      }
+    } finally {
+      // Wait for the documents in flight, even when giving up on the rest
+      inFlight.acquireUninterruptibly(maxInFlight);
+      result.finish();
+    }
+
+    return result;
+  }
+
+  private void transform(Item item, BatchResult result) {
+    long start = System.nanoTime();
+    try {
+      JsonDocument document;
+      try (InputStream inputStream = item.open()) {
+        document = parser.parse(inputStream);
+      }
+
+      transformation.accept(document);
+
+      try (OutputStream outputStream = item.create()) {
+        writer.write(document, outputStream);
+      }
+      item.commit();
+
+      result.succeeded(System.nanoTime() - start);
+    } catch (Throwable e) {
+      // Errors included, or the document would be counted neither as a success nor a failure
+      item.abort();
+      result.failed(item.name(), e);
+    }
+  }
+
+  /**
+   * A document of the batch, where it is read from and written to.
+   */
+  private interface Item {
+
+    String name();
+
+    InputStream open() throws IOException;
+
+    OutputStream create() throws IOException;
+
+    /**
+     * Called once the output has been written and closed.
+     */
+    default void commit() throws IOException {
+    }
+
+    /**
+     * Called if the document failed.
+     */
+    default void abort() {
+    }
+  }
+
+  /**
+   * A file, written to a temporary file next to the output, which replaces the output once
+   * written.
+   */
+  private static final class PathItem implements Item {
+
+    private final Path input;
+    private final Path output;
+    private Path temporary;
+
+    private PathItem(Path input, Path output) {
+      this.input = input;
+      this.output = output;
+    }
+
+    @Override
+    public String name() {
+      return input.toString();
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+      return Files.newInputStream(input);
+    }
+
+    @Override
+    public OutputStream create() throws IOException {
+      temporary = Files.createTempFile(output.toAbsolutePath().getParent(),
+          output.getFileName().toString(), ".tmp");
+      return Files.newOutputStream(temporary);
+    }
+
+    @Override
+    public void commit() throws IOException {
+      Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING);
+      temporary = null;
+    }
+
+    @Override
+    public void abort() {
+      if (temporary != null) {
+        try {
+          Files.deleteIfExists(temporary);
+        } catch (IOException e) {
+          // The failure of the document is what gets reported
+        }
+      }
+    }
+  }
+
+  private static final class StreamItem implements Item {
+
+    private final int position;
+    private final InputStream input;
+    private final IntFunction<? extends OutputStream> outputs;
+
+    private StreamItem(int position, InputStream input,
+        IntFunction<? extends OutputStream> outputs) {
+      this.position = position;
+      this.input = input;
+      this.outputs = outputs;
+    }
+
+    @Override
+    public String name() {
+      return "#" + position;
+    }
+
+    @Override
+    public InputStream open() {
+      return input;
+    }
+
+    @Override
+    public OutputStream create() {
+      return outputs.apply(position);
+    }
+  }
+}
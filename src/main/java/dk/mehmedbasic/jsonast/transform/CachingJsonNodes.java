@@ -12,7 +12,11 @@ import java.util.Map;
 
 /**
  * A throwaway nodes object that handles caching.
+ *
+ * @deprecated a {@link dk.mehmedbasic.jsonast.JsonDocument} keeps an index of its nodes up to
+ * date, so selecting on the document is as fast without a throwaway cache.
  */
+@Deprecated
 public class CachingJsonNodes extends JsonNodes {
 
   private final Map<String, BaseNode> idToNode = new HashMap<>();
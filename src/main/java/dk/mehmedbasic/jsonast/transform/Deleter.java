@@ -3,6 +3,7 @@ package dk.mehmedbasic.jsonast.transform;
 import dk.mehmedbasic.jsonast.BaseNode;
 import dk.mehmedbasic.jsonast.JsonDocument;
 import dk.mehmedbasic.jsonast.JsonNodes;
+import dk.mehmedbasic.jsonast.selector.JsonSelectionEngine;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 
@@ -28,18 +29,46 @@ public final class Deleter extends TransformationFunction {
       LinkedHashSet<BaseNode> nodes = new LinkedHashSet<>(root.getRoots());
       for (BaseNode node : nodes) {
         BaseNode get = node.get(name);
-        TransformationFunction.nodeChanged(root, get);
-        node.removeNode(get);
+        if (get != null) {
+          TransformationFunction.nodeChanged(root, get);
+          node.removeNode(get);
+        }
       }
     } else if (index >= 0) {
       ArrayList<BaseNode> nodes = new ArrayList<>(root.getRoots());
       for (BaseNode node : nodes) {
         if (node.isObject() || node.isArray()) {
           BaseNode get = node.get(index);
-          TransformationFunction.nodeChanged(root, get);
-          node.removeNode(get);
+          if (get != null) {
+            TransformationFunction.nodeChanged(root, get);
+            node.removeNode(get);
+          }
         }
       }
     }
   }
+
+  /**
+   * The nodes that stay in the tree keep their names and ancestors, so they are selected as before,
+   * unless the selector looks at the properties that were deleted.
+   */
+  @Override
+  Reselection reselection(JsonSelectionEngine selector) {
+    return selector.hasValueConditions() ? Reselection.ALWAYS : Reselection.DETACHED;
+  }
+
+  /**
+   * Whether the child is deleted by name, otherwise it is deleted by index if the index is set.
+   */
+  boolean deletesByName() {
+    return name != null && name.length() > 0;
+  }
+
+  String getName() {
+    return name;
+  }
+
+  int getIndex() {
+    return index;
+  }
 }
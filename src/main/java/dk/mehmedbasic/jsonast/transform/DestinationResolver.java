@@ -0,0 +1,310 @@
+package dk.mehmedbasic.jsonast.transform;
+
+import dk.mehmedbasic.jsonast.BaseNode;
+import dk.mehmedbasic.jsonast.JsonNodes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the closest destination for many sources, with the destinations selected once.
+ * <br/><br/>
+ * Every ancestor of a destination gets a summary of the shallowest destinations below it, one
+ * value per child subtree. The closest destination of a source is then found by walking the
+ * ancestors of the source, so each source costs O(depth) instead of a selection and a distance to
+ * every destination.
+ * <br/><br/>
+ * The result is the destination that {@link JsonNodes#closestTo(BaseNode)} finds as the unique
+ * closest, never the source itself. There is no destination when several are equally close.
+ * <br/><br/>
+ * When a subtree moves, {@link #replace(BaseNode, Iterable)} updates the summaries of the subtree
+ * and of its old and new ancestors, so the destinations do not have to be selected again.
+ */
+final class DestinationResolver {
+
+  private static final int NONE = Integer.MAX_VALUE;
+
+  private final Map<BaseNode, Summary> summaries = new IdentityHashMap<>();
+  /**
+   * The virtual parent of every root, which joins destinations in separate trees.
+   */
+  private final Summary top = new Summary(null, null, -1);
+
+  DestinationResolver(JsonNodes destinations) {
+    List<Summary> marked = new ArrayList<>();
+    for (BaseNode destination : destinations) {
+      Summary summary = summaryOf(destination);
+      summary.destination = true;
+      marked.add(summary);
+    }
+
+    refresh(marked);
+  }
+
+  /**
+   * Updates the destinations in a subtree that has moved, or whose nodes may be selected
+   * differently.
+   *
+   * @param subtree the root of the subtree, at its new place.
+   * @param destinations the destinations in the subtree now.
+   */
+  void replace(BaseNode subtree, Iterable<BaseNode> destinations) {
+    List<Summary> changed = new ArrayList<>();
+    Summary old = summaries.get(subtree);
+    if (old != null) {
+      // The summaries below know their old depth and ancestors
+      forget(old);
+      old.parent.children.remove(old);
+      changed.add(old.parent);
+    }
+
+    for (BaseNode destination : destinations) {
+      Summary summary = summaryOf(destination);
+      summary.destination = true;
+      changed.add(summary);
+    }
+
+    refresh(changed);
+  }
+
+  /**
+   * Finds the unique closest destination of a source.
+   *
+   * @param source the source node.
+   * @return the destination or null.
+   */
+  BaseNode resolve(BaseNode source) {
+    Candidate best = new Candidate();
+
+    int depth = source.depth();
+    Summary own = summaries.get(source);
+    if (own != null && own.min1 != NONE) {
+      // Destinations below the source
+      best.offer(own.min1 - depth + 1, own.count1, own.witness1);
+    }
+
+    Summary child = own;
+    int ancestorDepth = depth - 1;
+    for (BaseNode ancestor = source.getParent(); ancestorDepth >= -1; ancestorDepth--) {
+      Summary summary = ancestor == null ? top : summaries.get(ancestor);
+      if (summary != null) {
+        if (summary.destination) {
+          best.offer(depth - ancestorDepth - 1, 1, ancestor);
+        }
+
+        summary.offerExcluding(child, best, depth - 2 * ancestorDepth - 1);
+      }
+
+      child = summary;
+      if (ancestor != null) {
+        ancestor = ancestor.getParent();
+      }
+    }
+
+    return best.count == 1 ? best.witness : null;
+  }
+
+  /**
+   * Recalculates the given summaries and their ancestors, children before their parents.
+   */
+  private void refresh(List<Summary> changed) {
+    Set<Summary> affected = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Summary summary : changed) {
+      Summary current = summary;
+      while (current != null && affected.add(current)) {
+        current = current.parent;
+      }
+    }
+
+    List<Summary> ordered = new ArrayList<>(affected);
+    ordered.sort(Comparator.comparingInt((Summary summary) -> summary.depth).reversed());
+    for (Summary summary : ordered) {
+      summary.recalculate();
+    }
+  }
+
+  /**
+   * Removes the summaries of a subtree.
+   */
+  private void forget(Summary subtree) {
+    Deque<Summary> stack = new ArrayDeque<>();
+    stack.push(subtree);
+    while (!stack.isEmpty()) {
+      Summary summary = stack.pop();
+      summaries.remove(summary.node);
+      summary.children.forEach(stack::push);
+    }
+  }
+
+  /**
+   * Gets the summary of a node, creating summaries for the node and its ancestors.
+   */
+  private Summary summaryOf(BaseNode node) {
+    Deque<BaseNode> path = new ArrayDeque<>();
+    Summary known = top;
+    for (BaseNode current = node; current != null; current = current.getParent()) {
+      Summary existing = summaries.get(current);
+      if (existing != null) {
+        known = existing;
+        break;
+      }
+
+      path.push(current);
+    }
+
+    Summary summary = known;
+    while (!path.isEmpty()) {
+      BaseNode current = path.pop();
+      Summary child = new Summary(current, summary, summary.depth + 1);
+      summary.children.add(child);
+      summaries.put(current, child);
+      summary = child;
+    }
+
+    return summary;
+  }
+
+  /**
+   * The running best distance for a source.
+   */
+  private static final class Candidate {
+
+    private int distance = NONE;
+    private int count;
+    private BaseNode witness;
+
+    private void offer(int distance, int count, BaseNode witness) {
+      if (distance < this.distance) {
+        this.distance = distance;
+        this.count = count;
+        this.witness = witness;
+      } else if (distance == this.distance) {
+        this.count += count;
+      }
+    }
+  }
+
+  /**
+   * The destinations below a node.
+   * <br/><br/>
+   * A subtree contributes the depth of its shallowest destinations and how many there are. The
+   * node keeps the smallest and second-smallest contributions of its children, so the best
+   * destination outside any one child subtree is known. A witness is only meaningful when its
+   * count is 1.
+   */
+  private static final class Summary {
+
+    private final BaseNode node;
+    private final Summary parent;
+    private final int depth;
+    private final List<Summary> children = new ArrayList<>(1);
+    private boolean destination;
+
+    private int min1 = NONE;
+    private int count1;
+    private BaseNode witness1;
+    private Summary from1;
+    /**
+     * A witness for min1 from a different child than from1.
+     */
+    private BaseNode otherWitness1;
+
+    private int min2 = NONE;
+    private int count2;
+    private BaseNode witness2;
+
+    private int contribution = NONE;
+    private int contributionCount;
+    private BaseNode contributionWitness;
+
+    private Summary(BaseNode node, Summary parent, int depth) {
+      this.node = node;
+      this.parent = parent;
+      this.depth = depth;
+    }
+
+    /**
+     * Calculates the contribution of this subtree from the contributions of the children.
+     */
+    private void recalculate() {
+      min1 = NONE;
+      count1 = 0;
+      witness1 = null;
+      from1 = null;
+      otherWitness1 = null;
+      min2 = NONE;
+      count2 = 0;
+      witness2 = null;
+      for (Summary child : children) {
+        offer(child);
+      }
+
+      contribution = NONE;
+      contributionCount = 0;
+      contributionWitness = null;
+      if (destination) {
+        contribution = depth;
+        contributionCount = 1;
+        contributionWitness = node;
+      }
+
+      if (min1 < contribution) {
+        contribution = min1;
+        contributionCount = count1;
+        contributionWitness = witness1;
+      } else if (min1 == contribution && min1 != NONE) {
+        contributionCount += count1;
+      }
+    }
+
+    private void offer(Summary child) {
+      int value = child.contribution;
+      if (value < min1) {
+        min2 = min1;
+        count2 = count1;
+        witness2 = witness1;
+
+        min1 = value;
+        count1 = child.contributionCount;
+        witness1 = child.contributionWitness;
+        from1 = child;
+        otherWitness1 = null;
+      } else if (value == min1) {
+        count1 += child.contributionCount;
+        if (otherWitness1 == null) {
+          otherWitness1 = child.contributionWitness;
+        }
+      } else if (value < min2) {
+        min2 = value;
+        count2 = child.contributionCount;
+        witness2 = child.contributionWitness;
+      } else if (value == min2) {
+        count2 += child.contributionCount;
+      }
+    }
+
+    /**
+     * Offers the shallowest destinations below this node, except those in the subtree of the given
+     * child. The distance of a destination is its depth plus the given offset.
+     */
+    private void offerExcluding(Summary excluded, Candidate best, int offset) {
+      if (excluded == null || excluded.contribution != min1) {
+        if (min1 != NONE) {
+          best.offer(min1 + offset, count1, witness1);
+        }
+      } else if (count1 > excluded.contributionCount) {
+        // Another child shares the minimum
+        BaseNode witness = from1 == excluded ? otherWitness1 : witness1;
+        best.offer(min1 + offset, count1 - excluded.contributionCount, witness);
+      } else if (min2 != NONE) {
+        best.offer(min2 + offset, count2, witness2);
+      }
+    }
+  }
+}
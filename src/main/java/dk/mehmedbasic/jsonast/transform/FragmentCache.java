@@ -0,0 +1,133 @@
+package dk.mehmedbasic.jsonast.transform;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import dk.mehmedbasic.jsonast.BaseNode;
+import dk.mehmedbasic.jsonast.JsonDocument;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of parsed JSON fragments, keyed by the JSON text.
+ * <br/><br/>
+ * The fragments are frozen, so one parsed fragment can be shared by every transformer and thread
+ * that adds it. They are templates: take a {@link BaseNode#deepCopy()} to get a node that can be
+ * added to a document. The least recently used fragment is evicted when the cache is full, and
+ * fragments are parsed outside the lock, like the {@link
+ * dk.mehmedbasic.jsonast.selector.SelectorCache}.
+ */
+public final class FragmentCache {
+
+  /**
+   * The number of fragments kept by the shared cache.
+   */
+  public static final int DEFAULT_CAPACITY = 256;
+
+  private static final FragmentCache SHARED = new FragmentCache(DEFAULT_CAPACITY);
+
+  private final int capacity;
+  private final Map<String, BaseNode> fragments;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  public FragmentCache(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+
+    this.capacity = capacity;
+    this.fragments = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, BaseNode> eldest) {
+        return size() > FragmentCache.this.capacity;
+      }
+    };
+  }
+
+  /**
+   * The cache used by {@link Transformer#addJson(String, String)}.
+   *
+   * @return the shared cache.
+   */
+  public static FragmentCache shared() {
+    return SHARED;
+  }
+
+  /**
+   * Gets the parsed fragment, parsing it on a miss.
+   *
+   * @param json the JSON text.
+   * @return the frozen root of the fragment, or null if the text has no value.
+   * @throws JsonProcessingException if the text is not valid JSON.
+   */
+  public BaseNode get(String json) throws JsonProcessingException {
+    BaseNode fragment;
+    synchronized (fragments) {
+      fragment = fragments.get(json);
+    }
+
+    if (fragment != null) {
+      hits.increment();
+      return fragment;
+    }
+
+    misses.increment();
+    JsonDocument parsed = JsonDocument.parse(json);
+    if (parsed.isEmpty()) {
+      return null;
+    }
+
+    fragment = parsed.freeze().getRoots().iterator().next();
+    synchronized (fragments) {
+      // Another thread may have parsed it meanwhile, keep the first one
+      BaseNode existing = fragments.putIfAbsent(json, fragment);
+      return existing != null ? existing : fragment;
+    }
+  }
+
+  /**
+   * The number of lookups that found a parsed fragment.
+   *
+   * @return the hit count.
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * The number of lookups that had to parse the fragment.
+   *
+   * @return the miss count.
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * The number of fragments in the cache.
+   *
+   * @return the size.
+   */
+  public int size() {
+    synchronized (fragments) {
+      return fragments.size();
+    }
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Removes all fragments and resets the counts.
+   */
+  public void clear() {
+    synchronized (fragments) {
+      fragments.clear();
+    }
+
+    hits.reset();
+    misses.reset();
+  }
+}
@@ -4,6 +4,7 @@ import dk.mehmedbasic.jsonast.BaseNode;
 import dk.mehmedbasic.jsonast.JsonDocument;
 import dk.mehmedbasic.jsonast.JsonNodes;
 import dk.mehmedbasic.jsonast.JsonValueNode;
+import dk.mehmedbasic.jsonast.selector.JsonSelectionEngine;
 import java.util.function.Consumer;
 
 /**
@@ -43,7 +44,20 @@ final class Manipulator extends TransformationFunction {
     }
   }
 
-  private void applyManipulation(BaseNode node) {
+  @Override
+  Reselection reselection(JsonSelectionEngine selector) {
+    return selector.hasValueConditions() ? Reselection.ALWAYS : Reselection.NEVER;
+  }
+
+  int getChildIndex() {
+    return childIndex;
+  }
+
+  String getChildName() {
+    return childName;
+  }
+
+  void applyManipulation(BaseNode node) {
     if (node == null || !node.isValueNode()) {
       throw new IllegalArgumentException("Expected value node, but got: " + node);
     }
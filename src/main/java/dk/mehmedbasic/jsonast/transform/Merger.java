@@ -6,11 +6,16 @@ import dk.mehmedbasic.jsonast.JsonDocument;
 import dk.mehmedbasic.jsonast.JsonNodes;
 import dk.mehmedbasic.jsonast.JsonObjectNode;
 import dk.mehmedbasic.jsonast.JsonValueNode;
-import dk.mehmedbasic.jsonast.NodeDistance;
-import java.util.List;
+import dk.mehmedbasic.jsonast.selector.JsonSelectionEngine;
+import dk.mehmedbasic.jsonast.selector.SelectorCache;
 
 /**
  * A merger manipulation. Merges two values into one
+ * <br/><br/>
+ * The destinations are selected once. When a source is added to an object or an array, only the
+ * subtree of the source is selected again, as the other nodes keep their ancestors. Selectors with
+ * {@code [name=value]} conditions are selected again in full after every merge, as the merged
+ * values may change what they match anywhere.
  */
 final class Merger extends TransformationFunction {
 
@@ -23,32 +28,29 @@ final class Merger extends TransformationFunction {
   }
 
   public void apply(JsonDocument document, final JsonNodes root) {
-    CachingJsonNodes queryRoot = document.select(null).withCaching();
+    JsonSelectionEngine engine = selector == null || selector.isBlank()
+        ? null : SelectorCache.shared().get(selector);
+    boolean reselects = engine == null || engine.hasValueConditions();
 
+    DestinationResolver resolver = null;
     for (BaseNode source : root.getRoots()) {
-      queryRoot.getExclusions().clear();
-      queryRoot.addExclusion(source);
-
-      JsonNodes newDestinations = queryRoot.select(selector);
-
-      BaseNode destination = null;
-      if (newDestinations.getRootCount() > 1) {
-        List<NodeDistance> closest = newDestinations.closestTo(source);
-        if (closest.size() == 1) {
-          destination = closest.get(0).node();
-        }
-      } else if (newDestinations.getRootCount() == 1) {
-        destination = newDestinations.getRoots().iterator().next();
+      if (resolver == null) {
+        resolver = new DestinationResolver(
+            engine == null ? document.select(null) : document.selectCompiled(engine));
       }
 
+      BaseNode destination = resolver.resolve(source);
       if (destination != null) {
+        boolean moved = false;
         if (destination.isObject()) {
           // Destination is object, add the source
           destination.addChild(source);
+          moved = true;
         } else if (destination.isArray()) {
           // Destination is array, add the source and wipe the name
           source.getIdentifier().setName(null);
           destination.addChild(source);
+          moved = true;
         } else if (destination.isValueNode()) {
           JsonValueNode valueNode = (JsonValueNode) destination;
           // Destination is JsonValue, apply the given function
@@ -61,10 +63,18 @@ final class Merger extends TransformationFunction {
               function.applyValue((JsonValueNode) source, valueNode);
             }
 
-            queryRoot.nodeChanged(source);
-            queryRoot.nodeChanged(destination);
+            if (reselects) {
+              // The merged values may change what the selector matches
+              resolver = null;
+            }
           }
         }
+
+        if (moved && reselects) {
+          resolver = null;
+        } else if (moved) {
+          resolver.replace(source, engine.executeSubtree(source));
+        }
       }
     }
   }
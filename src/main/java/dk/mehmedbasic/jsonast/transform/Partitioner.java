@@ -44,9 +44,8 @@ public final class Partitioner extends TransformationFunction {
               throw new IllegalArgumentException("The given node was not found " + key);
             }
 
-            source.removeNode(node);
-
-            destination.addChild(node);
+            // A move, which a patch being recorded has as one operation
+            node.changeParent(destination);
 
             nodeChanged(root, source);
             nodeChanged(root, destination);
@@ -3,6 +3,7 @@ package dk.mehmedbasic.jsonast.transform;
 import dk.mehmedbasic.jsonast.BaseNode;
 import dk.mehmedbasic.jsonast.JsonDocument;
 import dk.mehmedbasic.jsonast.JsonNodes;
+import dk.mehmedbasic.jsonast.selector.JsonSelectionEngine;
 
 /**
  * Renames nodes or their children.
@@ -24,7 +25,7 @@ final class Renamer extends TransformationFunction {
   @Override
   public void apply(JsonDocument document, JsonNodes root) {
     for (BaseNode node : root.getRoots()) {
-      if (from != null && from.length() > 0) {
+      if (renamesChild()) {
         node.renameNode(from, to);
         nodeChanged(root, node);
       } else {
@@ -36,4 +37,37 @@ final class Renamer extends TransformationFunction {
       }
     }
   }
+
+  /**
+   * Only selectors that test the old or the new name can select differently afterwards. The old
+   * names of the renamed nodes themselves are not known up front.
+   */
+  @Override
+  Reselection reselection(JsonSelectionEngine selector) {
+    if (selector.hasValueConditions()) {
+      return Reselection.ALWAYS;
+    }
+
+    if (renamesChild()) {
+      boolean tested = selector.getNames().contains(from) || selector.getNames().contains(to);
+      return tested ? Reselection.ALWAYS : Reselection.NEVER;
+    }
+
+    return selector.getNames().isEmpty() ? Reselection.NEVER : Reselection.ALWAYS;
+  }
+
+  /**
+   * Whether a child is renamed, instead of the node itself.
+   */
+  boolean renamesChild() {
+    return from != null && from.length() > 0;
+  }
+
+  String getFrom() {
+    return from;
+  }
+
+  String getTo() {
+    return to;
+  }
 }
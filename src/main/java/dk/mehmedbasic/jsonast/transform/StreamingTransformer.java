@@ -0,0 +1,486 @@
+package dk.mehmedbasic.jsonast.transform;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserDelegate;
+import dk.mehmedbasic.jsonast.BaseNode;
+import dk.mehmedbasic.jsonast.JsonNodes;
+import dk.mehmedbasic.jsonast.conversion.BaseNodeParser;
+import dk.mehmedbasic.jsonast.conversion.BaseNodeWriter;
+import dk.mehmedbasic.jsonast.conversion.ConversionNamingStrategy;
+import dk.mehmedbasic.jsonast.conversion.ConversionNamingStrategy.StringPair;
+import dk.mehmedbasic.jsonast.selector.JsonSelectionEngine;
+import dk.mehmedbasic.jsonast.selector.StreamMatcher;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies the local functions of a {@link Transformer} while the tokens flow from a parser to a
+ * generator, so documents of any size are transformed in memory bounded by their depth.
+ * <br/><br/>
+ * The local functions are {@link Renamer}, {@link Deleter}, {@link AddValue} and {@link
+ * Manipulator}, they only change the selected node and its children. Functions that move nodes
+ * across the document cannot be streamed and are rejected up front.
+ * <br/><br/>
+ * The transformer selects again before every function, so each function sees the changes of the
+ * ones before it. The stream reproduces that by matching every value once per function, with the
+ * name it has after the functions before, and by counting the positions in arrays per function, so
+ * deleted elements shift the indexes of the following ones. The value is written with the name it
+ * has after the last function.
+ * <br/><br/>
+ * Selectors that look at the values of properties, as in {@code [name=value]}, need the whole
+ * object. Objects that such a selector may test are read ahead into nodes, and the functions are
+ * applied to them in memory. The lookahead is limited to a number of tokens per object.
+ * <br/><br/>
+ * The output is the same as transforming the parsed document and writing it with a
+ * {@link BaseNodeWriter} using the same naming strategy, except for the side effects of the value
+ * functions of {@link Manipulator}: they are not called in document order, and not at all inside
+ * values that are deleted.
+ */
+final class StreamingTransformer {
+
+  /**
+   * The default number of tokens an object may have when it is read ahead.
+   */
+  static final int DEFAULT_LOOKAHEAD = 100_000;
+
+  private final List<TransformationFunction> functions;
+  private final StreamMatcher matcher;
+  private final boolean selectsRoots;
+  private final boolean valueConditions;
+  private final ConversionNamingStrategy strategy;
+  private final BaseNodeParser nodeParser;
+  private final BaseNodeWriter nodeWriter;
+  private final int lookahead;
+
+  StreamingTransformer(String selector, List<TransformationFunction> functions,
+      ConversionNamingStrategy strategy, int lookahead) {
+    for (TransformationFunction function : functions) {
+      if (!(function instanceof Renamer || function instanceof Deleter
+          || function instanceof AddValue || function instanceof Manipulator)) {
+        throw new UnsupportedOperationException(function.getClass().getSimpleName()
+            + " is not a local function and cannot be streamed");
+      }
+    }
+
+    if (selector == null || selector.trim().isEmpty()) {
+      // Selecting nothing selects the roots
+      this.matcher = null;
+      this.selectsRoots = true;
+      this.valueConditions = false;
+    } else {
+      JsonSelectionEngine engine = JsonSelectionEngine.compile(selector);
+      this.matcher = engine.getStreamMatcher();
+      this.selectsRoots = matcher != null && matcher.selectsRoots();
+      this.valueConditions = engine.hasValueConditions();
+    }
+
+    this.functions = List.copyOf(functions);
+    this.strategy = strategy;
+    this.nodeParser = new BaseNodeParser(strategy);
+    this.nodeWriter = new BaseNodeWriter(strategy);
+    this.lookahead = lookahead;
+  }
+
+  /**
+   * Transforms the rest of the values of the parser to the generator. Each root value is
+   * transformed on its own, like a document per line of NDJSON.
+   *
+   * @param parser the parser to read from.
+   * @param generator the generator to write to, it is flushed afterwards.
+   */
+  void apply(JsonParser parser, JsonGenerator generator) throws IOException {
+    Deque<Frame> frames = new ArrayDeque<>();
+    String fieldName = null;
+    JsonToken token;
+    while ((token = parser.nextToken()) != null) {
+      switch (token) {
+        case FIELD_NAME -> fieldName = parser.getCurrentName();
+        case END_OBJECT, END_ARRAY -> endContainer(frames.pop(), generator);
+        default -> {
+          if (frames.isEmpty()) {
+            readRoot(parser, token, frames, generator);
+          } else {
+            readChild(parser, token, fieldName, frames, generator);
+          }
+          fieldName = null;
+        }
+      }
+    }
+
+    generator.flush();
+  }
+
+  private void readRoot(JsonParser parser, JsonToken token, Deque<Frame> frames,
+      JsonGenerator generator) throws IOException {
+    int count = functions.size();
+    if (!token.isStructStart()) {
+      BaseNode root = nodeParser.readNode(parser, null);
+      if (selectsRoots) {
+        for (TransformationFunction function : functions) {
+          applyToNode(function, root, true);
+        }
+      }
+
+      nodeWriter.write(root, generator);
+      return;
+    }
+
+    BaseNode root = nodeParser.readEmptyContainer(parser, null);
+    Frame frame = new Frame(root.isArray(), count);
+    for (int k = 0; k < count; k++) {
+      frame.selected[k] = selectsRoots;
+      if (selectsRoots) {
+        applyToNode(functions.get(k), root, true);
+      }
+    }
+
+    startContainer(root, generator);
+    frames.push(frame);
+  }
+
+  private void readChild(JsonParser parser, JsonToken token, String fieldName,
+      Deque<Frame> frames, JsonGenerator generator) throws IOException {
+    Frame frame = frames.peek();
+    assert frame != null;
+
+    if (token == JsonToken.START_OBJECT && needsLookahead(frame)) {
+      BaseNode node = nodeParser.readNode(new LimitedParser(parser, lookahead), fieldName);
+      applyInMemory(frame, node, 0, generator);
+      return;
+    }
+
+    BaseNode node = token.isStructStart()
+        ? nodeParser.readEmptyContainer(parser, fieldName)
+        : nodeParser.readNode(parser, fieldName);
+
+    int count = functions.size();
+    Frame child = token.isStructStart() ? new Frame(node.isArray(), count) : null;
+    for (int k = 0; k < count; k++) {
+      int position = frame.positions[k]++;
+      long matched = match(frame, k, node, position);
+      if (child != null) {
+        child.inherited[k] = frame.inherited[k] | matched;
+        child.parents[k] = matched;
+        child.selected[k] = selects(matched);
+      }
+
+      if (frame.selected[k] && !applyToChild(functions.get(k), frame, k, node, position)) {
+        // Deleted, so later functions do not see it either
+        parser.skipChildren();
+        return;
+      }
+
+      if (selects(matched)) {
+        applyToNode(functions.get(k), node, false);
+      }
+    }
+
+    if (!writeName(frame, node, generator)) {
+      parser.skipChildren();
+    } else if (child != null) {
+      if (frame.array && node.isObject()) {
+        child.pairs = toPairMap(strategy.toJacksonInArray(node));
+      }
+
+      startContainer(node, generator);
+      frames.push(child);
+    } else {
+      nodeWriter.write(node, generator);
+    }
+  }
+
+  /**
+   * Adds the values of {@link AddValue}, which come after the children that were read, checks the
+   * children that were expected to be manipulated, and ends the object or array.
+   */
+  private void endContainer(Frame frame, JsonGenerator generator) throws IOException {
+    int count = functions.size();
+    for (int k = 0; k < count; k++) {
+      if (frame.selected[k] && functions.get(k) instanceof AddValue addValue) {
+        applyInMemory(frame, addValue.createChild(), k + 1, generator);
+      }
+    }
+
+    for (int k = 0; k < count; k++) {
+      if (frame.selected[k] && functions.get(k) instanceof Manipulator manipulator
+          && (manipulator.getChildIndex() >= 0 || manipulator.getChildName() != null)
+          && !frame.found[k]) {
+        manipulator.applyManipulation(null);
+      }
+    }
+
+    if (frame.array) {
+      generator.writeEndArray();
+    } else {
+      if (frame.pairs != null) {
+        for (Map.Entry<String, String> pair : frame.pairs.entrySet()) {
+          generator.writeFieldName(pair.getKey());
+          writeString(pair.getValue(), generator);
+        }
+      }
+
+      generator.writeEndObject();
+    }
+  }
+
+  /**
+   * Applies the functions from the given one on to a node in memory, which is a child of the frame,
+   * and writes it.
+   *
+   * @param frame the parent of the node.
+   * @param node the node, with its children.
+   * @param from the first function the node is seen by.
+   */
+  private void applyInMemory(Frame frame, BaseNode node, int from, JsonGenerator generator)
+      throws IOException {
+    for (int k = from; k < functions.size(); k++) {
+      TransformationFunction function = functions.get(k);
+      int position = frame.positions[k]++;
+      long matched = match(frame, k, node, position);
+
+      Set<BaseNode> selected = new LinkedHashSet<>();
+      if (selects(matched)) {
+        selected.add(node);
+      }
+
+      if (matcher != null) {
+        matcher.selectBelow(node, frame.inherited[k] | matched, matched, selected::add);
+      }
+
+      if (frame.selected[k] && !applyToChild(function, frame, k, node, position)) {
+        return;
+      }
+
+      if (!selected.isEmpty()) {
+        JsonNodes nodes = new JsonNodes();
+        nodes.setRoots(selected);
+        function.apply(null, nodes);
+
+        if (function instanceof Renamer renamer && !renamer.renamesChild()
+            && selected.contains(node)) {
+          // The node is detached from the frame, so the renamer skipped it
+          node.getIdentifier().setName(renamer.getTo());
+        }
+      }
+    }
+
+    if (writeName(frame, node, generator)) {
+      if (frame.array) {
+        nodeWriter.writeElement(node, generator);
+      } else {
+        nodeWriter.write(node, generator);
+      }
+    }
+  }
+
+  /**
+   * Applies a function to a selected node that is read from the stream. Changes to its children are
+   * made when they are read, so for objects and arrays only the type of the node is checked, by
+   * calling the same methods as the function does.
+   */
+  private static void applyToNode(TransformationFunction function, BaseNode node, boolean root) {
+    if (function instanceof Renamer renamer) {
+      if (renamer.renamesChild()) {
+        node.get(renamer.getFrom());
+      } else if (!root) {
+        node.getIdentifier().setName(renamer.getTo());
+      }
+    } else if (function instanceof Deleter deleter) {
+      if (deleter.deletesByName()) {
+        node.get(deleter.getName());
+      } else if (deleter.getIndex() >= 0 && node.isObject()) {
+        node.get(deleter.getIndex());
+      }
+    } else if (function instanceof Manipulator manipulator) {
+      if (manipulator.getChildIndex() >= 0) {
+        node.get(manipulator.getChildIndex());
+      } else if (manipulator.getChildName() != null) {
+        node.get(manipulator.getChildName());
+      } else {
+        manipulator.applyManipulation(node);
+      }
+    } else if (function instanceof AddValue addValue && node.isValueNode()) {
+      node.addChild(addValue.createChild());
+    }
+  }
+
+  /**
+   * Applies a function of a selected parent to one of its children, in the order the children are
+   * read. A lookup by name finds the first child with the name, like {@link BaseNode#get(String)}.
+   *
+   * @return false if the child is deleted.
+   */
+  private static boolean applyToChild(TransformationFunction function, Frame frame, int k,
+      BaseNode child, int position) {
+    String name = child.getIdentifier().getName();
+    if (function instanceof Renamer renamer) {
+      if (renamer.renamesChild() && !frame.found[k] && renamer.getFrom().equals(name)) {
+        frame.found[k] = true;
+        child.getIdentifier().setName(renamer.getTo());
+      }
+    } else if (function instanceof Deleter deleter) {
+      if (deleter.deletesByName()) {
+        if (!frame.found[k] && deleter.getName().equals(name)) {
+          frame.found[k] = true;
+          return false;
+        }
+      } else if (deleter.getIndex() == position && frame.array) {
+        return false;
+      }
+    } else if (function instanceof Manipulator manipulator) {
+      if (manipulator.getChildIndex() >= 0) {
+        if (manipulator.getChildIndex() == position && frame.array) {
+          frame.found[k] = true;
+          manipulator.applyManipulation(child);
+        }
+      } else if (manipulator.getChildName() != null) {
+        if (!frame.found[k] && manipulator.getChildName().equals(name)) {
+          frame.found[k] = true;
+          manipulator.applyManipulation(child);
+        }
+      }
+    }
+
+    return true;
+  }
+
+  private boolean needsLookahead(Frame frame) {
+    if (!valueConditions) {
+      return false;
+    }
+
+    for (int k = 0; k < functions.size(); k++) {
+      if (matcher.mayReadValues(frame.inherited[k], frame.parents[k])) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private long match(Frame frame, int k, BaseNode node, int position) {
+    if (matcher == null) {
+      return 0;
+    }
+
+    return matcher.match(node, frame.array ? position : null, frame.inherited[k],
+        frame.parents[k]);
+  }
+
+  private boolean selects(long matched) {
+    return matcher != null && matcher.selects(matched);
+  }
+
+  /**
+   * Writes the name of a child of an object, unless an earlier child has the same name or an extra
+   * pair of the naming strategy replaces it, just like {@link BaseNodeWriter}.
+   *
+   * @return true if the value of the child should be written.
+   */
+  private boolean writeName(Frame frame, BaseNode node, JsonGenerator generator)
+      throws IOException {
+    if (frame.array) {
+      return true;
+    }
+
+    String name = strategy.toJacksonName(node);
+    if (!frame.written.add(name)) {
+      return false;
+    }
+
+    generator.writeFieldName(name);
+    if (frame.pairs != null && frame.pairs.containsKey(name)) {
+      writeString(frame.pairs.remove(name), generator);
+      return false;
+    }
+
+    return true;
+  }
+
+  private static void startContainer(BaseNode node, JsonGenerator generator) throws IOException {
+    if (node.isArray()) {
+      generator.writeStartArray();
+    } else {
+      generator.writeStartObject();
+    }
+  }
+
+  private static void writeString(String value, JsonGenerator generator) throws IOException {
+    if (value == null) {
+      generator.writeNull();
+    } else {
+      generator.writeString(value);
+    }
+  }
+
+  private static Map<String, String> toPairMap(List<StringPair> pairs) {
+    if (pairs.isEmpty()) {
+      return null;
+    }
+
+    Map<String, String> result = new LinkedHashMap<>();
+    for (StringPair pair : pairs) {
+      result.put(pair.name(), pair.value());
+    }
+
+    return result;
+  }
+
+  /**
+   * An object or array that is being streamed, with its state in the tree each function sees.
+   */
+  private static final class Frame {
+
+    private final boolean array;
+    private final long[] inherited;
+    private final long[] parents;
+    private final boolean[] selected;
+    private final int[] positions;
+    private final boolean[] found;
+    private final Set<String> written;
+    private Map<String, String> pairs;
+
+    private Frame(boolean array, int functions) {
+      this.array = array;
+      this.inherited = new long[functions];
+      this.parents = new long[functions];
+      this.selected = new boolean[functions];
+      this.positions = new int[functions];
+      this.found = new boolean[functions];
+      this.written = array ? null : new HashSet<>();
+    }
+  }
+
+  /**
+   * Limits the number of tokens an object that is read ahead may have.
+   */
+  private static final class LimitedParser extends JsonParserDelegate {
+
+    private final int limit;
+    private int tokens;
+
+    private LimitedParser(JsonParser parser, int limit) {
+      super(parser);
+      this.limit = limit;
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException {
+      if (++tokens > limit) {
+        throw new IllegalStateException(
+            "An object tested by a property condition has more than " + limit + " tokens");
+      }
+
+      return super.nextToken();
+    }
+  }
+}
@@ -3,6 +3,7 @@ package dk.mehmedbasic.jsonast.transform;
 import dk.mehmedbasic.jsonast.BaseNode;
 import dk.mehmedbasic.jsonast.JsonDocument;
 import dk.mehmedbasic.jsonast.JsonNodes;
+import dk.mehmedbasic.jsonast.selector.JsonSelectionEngine;
 
 /**
  * Transforms JSON AST according to the implementation.
@@ -11,9 +12,48 @@ public abstract class TransformationFunction {
 
   public abstract void apply(JsonDocument document, JsonNodes root);
 
+  /**
+   * How applying the function may change what the given selector selects, so a
+   * {@link TransformationPlan} knows when to select again. Functions that do not know are assumed
+   * to change anything.
+   *
+   * @param selector the selector.
+   * @return the kind of change.
+   */
+  Reselection reselection(JsonSelectionEngine selector) {
+    return Reselection.ALWAYS;
+  }
+
+  /**
+   * Tells a selection that a node in it changed. Only a {@link CachingJsonNodes} has to hear about
+   * it, the document index follows the nodes by itself.
+   *
+   * @param nodes the selection.
+   * @param baseNode the node that changed.
+   */
+  // CachingJsonNodes is deprecated, but selections made with it still need to stay correct
+  @SuppressWarnings("deprecation")
   public static void nodeChanged(JsonNodes nodes, BaseNode baseNode) {
     if (nodes instanceof CachingJsonNodes) {
       ((CachingJsonNodes) nodes).nodeChanged(baseNode);
     }
   }
+
+  /**
+   * What has to be done about a selection after a function is applied.
+   */
+  enum Reselection {
+    /**
+     * The selection is unchanged.
+     */
+    NEVER,
+    /**
+     * The selection is unchanged, except for the nodes that were removed from the tree.
+     */
+    DETACHED,
+    /**
+     * The selection must be made again.
+     */
+    ALWAYS
+  }
 }
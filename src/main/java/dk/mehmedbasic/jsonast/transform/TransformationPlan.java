@@ -0,0 +1,217 @@
+package dk.mehmedbasic.jsonast.transform;
+
+import dk.mehmedbasic.jsonast.BaseNode;
+import dk.mehmedbasic.jsonast.JsonDocument;
+import dk.mehmedbasic.jsonast.JsonNodes;
+import dk.mehmedbasic.jsonast.selector.JsonSelectionEngine;
+import dk.mehmedbasic.jsonast.transform.TransformationFunction.Reselection;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compiled sequence of transformers, which can be applied to any number of documents.
+ * <br/><br/>
+ * A transformer on its own selects before every function, so each function sees the changes of
+ * the ones before it. A plan selects once per transformer instead, and only selects again when a
+ * function may have changed what the selector selects: renaming nodes to or from a name the
+ * selector tests, adding or moving nodes, or any change if the selector tests property values.
+ * After a deletion, the nodes that were deleted along with their subtrees are dropped from the
+ * selection.
+ * <br/><br/>
+ * Consecutive transformers that the ones before them cannot change the selection of are selected
+ * up front, together, so the selectors that need a walk of the tree share one. The result is the
+ * same as applying the transformers one by one.
+ */
+public final class TransformationPlan {
+
+  private final List<Stage> stages;
+  /**
+   * The end of the run of transformers that is selected together, for the first one of each run.
+   */
+  private final int[] runEnds;
+
+  private TransformationPlan(List<Stage> stages) {
+    this.stages = stages;
+    this.runEnds = new int[stages.size()];
+
+    int start = 0;
+    while (start < stages.size()) {
+      int end = start + 1;
+      while (end < stages.size() && !changesSelection(start, end)) {
+        end++;
+      }
+
+      runEnds[start] = end;
+      start = end;
+    }
+  }
+
+  /**
+   * Compiles the given transformers, in order. Their destinations are ignored.
+   *
+   * @param transformers the transformers.
+   * @return the plan.
+   */
+  public static TransformationPlan of(Transformer... transformers) {
+    return of(List.of(transformers));
+  }
+
+  /**
+   * Compiles the given transformers, in order. Their destinations are ignored.
+   *
+   * @param transformers the transformers.
+   * @return the plan.
+   */
+  public static TransformationPlan of(List<Transformer> transformers) {
+    List<Stage> stages = new ArrayList<>(transformers.size());
+    for (Transformer transformer : transformers) {
+      String selector = transformer.getSelector();
+      JsonSelectionEngine engine = selector == null || selector.trim().isEmpty()
+          ? null
+          : JsonSelectionEngine.compile(selector);
+      stages.add(new Stage(engine, List.copyOf(transformer.getFunctions())));
+    }
+
+    return new TransformationPlan(stages);
+  }
+
+  /**
+   * Applies the plan to the given nodes.
+   *
+   * @param destination the nodes to transform.
+   * @return the destination.
+   */
+  public JsonNodes apply(JsonNodes destination) {
+    JsonDocument document = destination.getDocument();
+
+    int start = 0;
+    while (start < stages.size()) {
+      int end = runEnds[start];
+      List<JsonNodes> selections = select(start, end, destination);
+      boolean[] detached = new boolean[end - start];
+
+      for (int current = start; current < end; current++) {
+        Stage stage = stages.get(current);
+        JsonNodes selected = selections.get(current - start);
+        Reselection pending = detached[current - start] ? Reselection.DETACHED : Reselection.NEVER;
+
+        for (TransformationFunction function : stage.functions()) {
+          if (pending == Reselection.ALWAYS) {
+            selected = select(stage, destination);
+          } else if (pending == Reselection.DETACHED) {
+            selected = attached(selected, destination);
+          }
+
+          function.apply(document, selected);
+
+          pending = stage.reselection(function);
+          for (int later = current + 1; later < end; later++) {
+            if (stages.get(later).reselection(function) == Reselection.DETACHED) {
+              detached[later - start] = true;
+            }
+          }
+        }
+      }
+
+      start = end;
+    }
+
+    return destination;
+  }
+
+  /**
+   * Whether a function of the transformers from start up to the given one may change what it
+   * selects.
+   */
+  private boolean changesSelection(int start, int stage) {
+    for (int i = start; i < stage; i++) {
+      for (TransformationFunction function : stages.get(i).functions()) {
+        if (stages.get(stage).reselection(function) == Reselection.ALWAYS) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  private List<JsonNodes> select(int start, int end, JsonNodes destination) {
+    List<JsonSelectionEngine> engines = new ArrayList<>(end - start);
+    for (int i = start; i < end; i++) {
+      if (stages.get(i).engine() != null) {
+        engines.add(stages.get(i).engine());
+      }
+    }
+
+    List<JsonNodes> selected = JsonSelectionEngine.executeAll(engines, destination);
+    List<JsonNodes> result = new ArrayList<>(end - start);
+    int next = 0;
+    for (int i = start; i < end; i++) {
+      result.add(stages.get(i).engine() == null ? destination.select(null) : selected.get(next++));
+    }
+
+    return result;
+  }
+
+  private static JsonNodes select(Stage stage, JsonNodes destination) {
+    return stage.engine() == null
+        ? destination.select(null)
+        : destination.selectCompiled(stage.engine());
+  }
+
+  /**
+   * Keeps the selected nodes that can still be reached from the roots of the destination. The
+   * answers for the ancestors are remembered, so shared ancestors are only walked once.
+   */
+  private static JsonNodes attached(JsonNodes selected, JsonNodes destination) {
+    Map<BaseNode, Boolean> reachable = new IdentityHashMap<>();
+    for (BaseNode root : destination.getRoots()) {
+      reachable.put(root, true);
+    }
+
+    Set<BaseNode> result = new LinkedHashSet<>();
+    List<BaseNode> path = new ArrayList<>();
+    for (BaseNode node : selected.getRoots()) {
+      path.clear();
+      Boolean known = null;
+      for (BaseNode current = node; current != null; current = current.getParent()) {
+        known = reachable.get(current);
+        if (known != null) {
+          break;
+        }
+        path.add(current);
+      }
+
+      boolean keep = known != null && known;
+      for (BaseNode visited : path) {
+        reachable.put(visited, keep);
+      }
+
+      if (keep) {
+        result.add(node);
+      }
+    }
+
+    JsonNodes nodes = new JsonNodes();
+    nodes.setDocument(selected.getDocument());
+    nodes.setRoots(result);
+    return nodes;
+  }
+
+  /**
+   * The compiled selector of a transformer, null if it selects the roots, and its functions.
+   */
+  private record Stage(JsonSelectionEngine engine, List<TransformationFunction> functions) {
+
+    /**
+     * The roots of the destination are selected no matter what the functions do.
+     */
+    Reselection reselection(TransformationFunction function) {
+      return engine == null ? Reselection.NEVER : function.reselection(engine);
+    }
+  }
+}
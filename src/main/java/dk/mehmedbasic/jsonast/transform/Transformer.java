@@ -1,10 +1,23 @@
 package dk.mehmedbasic.jsonast.transform;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import dk.mehmedbasic.jsonast.BaseNode;
 import dk.mehmedbasic.jsonast.JsonDocument;
 import dk.mehmedbasic.jsonast.JsonNodes;
+import dk.mehmedbasic.jsonast.JsonPatchRecorder;
 import dk.mehmedbasic.jsonast.JsonType;
+import dk.mehmedbasic.jsonast.UndoLog;
+import dk.mehmedbasic.jsonast.conversion.ConversionNamingStrategy;
+import dk.mehmedbasic.jsonast.conversion.InlineIdsNamingStrategy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -12,9 +25,22 @@ import java.util.List;
  * A json transformer builder.
  * <p>
  * This small class builds and executes transformation functions.
+ * <p>
+ * The selector may be a group such as {@code "firstName, lastName"}, in which case the functions
+ * are applied to the union of the selected nodes.
+ * <p>
+ * Several transformers can be compiled into a {@link TransformationPlan}, which selects for them
+ * together where it can.
+ * <p>
+ * Transformers with only local functions, that rename, delete, add or manipulate values, can also
+ * be applied to a stream of JSON with {@link #applyStreaming(InputStream, OutputStream)}, without
+ * parsing the documents. The destination may be null for those.
  */
 public final class Transformer {
 
+  private static final JsonFactory FACTORY = new JsonFactory()
+      .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
   private final List<TransformationFunction> functions = new ArrayList<>();
   private final String selector;
   private final JsonNodes destination;
@@ -83,20 +109,27 @@ public final class Transformer {
     return this;
   }
 
+  /**
+   * Adds the given JSON to the selected nodes, a copy for each. The JSON is parsed once and kept
+   * in the shared {@link FragmentCache}.
+   *
+   * @param name the name of the added node.
+   * @param jsonString the JSON to add.
+   * @return this.
+   */
   public Transformer addJson(String name, String jsonString) {
-    JsonDocument parsed;
+    BaseNode fragment;
     try {
-      parsed = JsonDocument.parse(jsonString);
+      fragment = FragmentCache.shared().get(jsonString);
     } catch (JsonProcessingException e) {
       throw new RuntimeException(e);
     }
 
-    if (parsed.getRoots().isEmpty()) {
+    if (fragment == null) {
       return this;
     }
 
-    BaseNode root = parsed.getRoots().iterator().next();
-    functions.add(new AddValue(name, JsonType.fromNode(root), root));
+    functions.add(new AddValue(name, JsonType.fromNode(fragment), fragment));
     return this;
   }
 
@@ -115,13 +148,92 @@ public final class Transformer {
     return this;
   }
 
+  /**
+   * Applies the functions to the destination. The selection is made once, and only made again
+   * when a function may have changed it, see {@link TransformationPlan}.
+   *
+   * @return the destination.
+   */
   public JsonNodes apply() {
     if (destination != null) {
-      for (TransformationFunction function : functions) {
-        function.apply(destination.getDocument(), destination.select(selector));
-      }
+      TransformationPlan.of(this).apply(destination);
     }
 
     return destination;
   }
+
+  /**
+   * Applies the functions like {@link #apply()}, but undoes every change made to the destination
+   * if a function throws, see {@link UndoLog}. Undoing costs about what the changes did, not the
+   * size of the objects and arrays they were made in.
+   *
+   * @return the destination.
+   */
+  public JsonNodes applyAtomically() {
+    UndoLog.atomically(this::apply);
+    return destination;
+  }
+
+  /**
+   * Applies the functions like {@link #apply()}, and records what they changed as a JSON Patch
+   * (RFC 6902), see {@link JsonPatchRecorder}.
+   *
+   * @param strategy the naming strategy the document is written with, null for the default.
+   * @return the patch that turns the document as it was written before into the result.
+   */
+  public ArrayNode applyAsPatch(ConversionNamingStrategy strategy) {
+    if (destination == null) {
+      return JsonNodeFactory.instance.arrayNode();
+    }
+
+    return JsonPatchRecorder.record(destination.getDocument(), strategy, this::apply);
+  }
+
+  String getSelector() {
+    return selector;
+  }
+
+  List<TransformationFunction> getFunctions() {
+    return functions;
+  }
+
+  /**
+   * Applies the functions to every JSON value of the input while it is read, and writes the results
+   * to the output, one per line. Newline delimited JSON is transformed with constant memory, one
+   * line at a time.
+   * <br/><br/>
+   * The values are named like {@link JsonDocument#parse(InputStream)} names them. The input is
+   * closed afterwards, the output is flushed but not closed.
+   *
+   * @param inputStream the JSON values to transform.
+   * @param outputStream the destination.
+   * @throws UnsupportedOperationException if a function moves, merges or partitions nodes.
+   */
+  public void applyStreaming(InputStream inputStream, OutputStream outputStream)
+      throws IOException {
+    try (JsonParser parser = FACTORY.createParser(inputStream);
+        JsonGenerator generator = FACTORY.createGenerator(outputStream)) {
+      generator.setRootValueSeparator(new SerializedString("\n"));
+      applyStreaming(parser, generator, new InlineIdsNamingStrategy());
+    }
+  }
+
+  /**
+   * Applies the functions to the rest of the JSON values of the parser while they are read, and
+   * writes the results to the generator. The output is the same as parsing each value, applying the
+   * transformer and writing the result with the given naming strategy.
+   * <br/><br/>
+   * Objects that a selector on property values, like {@code [name=value]}, may test are read ahead
+   * into memory.
+   *
+   * @param parser the parser to read from.
+   * @param generator the generator to write to.
+   * @param strategy the naming strategy used to read and write the values.
+   * @throws UnsupportedOperationException if a function moves, merges or partitions nodes.
+   */
+  public void applyStreaming(JsonParser parser, JsonGenerator generator,
+      ConversionNamingStrategy strategy) throws IOException {
+    new StreamingTransformer(selector, functions, strategy, StreamingTransformer.DEFAULT_LOOKAHEAD)
+        .apply(parser, generator);
+  }
 }
@@ -0,0 +1,226 @@
+package dk.mehmedbasic.jsonast.transform;
+
+import dk.mehmedbasic.jsonast.BaseNode;
+import dk.mehmedbasic.jsonast.DocumentHistory;
+import dk.mehmedbasic.jsonast.DocumentVersion;
+import dk.mehmedbasic.jsonast.JsonDocument;
+import dk.mehmedbasic.jsonast.JsonValueNode;
+import dk.mehmedbasic.jsonast.UndoLog;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Migrates documents between versions.
+ * <br/><br/>
+ * The version of a document is the {@code "@version"} property of its root object, which the
+ * parsers give the class {@code sysclass_version}. A document without one is at version 0. The
+ * transformations up to and including the current version are skipped, so a document is only
+ * migrated the rest of the way.
+ * <br/><br/>
+ * The transformers of the versions between two versions are compiled into a single
+ * {@link TransformationPlan} the first time they are needed, and the plan is reused for every
+ * later document migrated between the same versions. A version control can be shared between
+ * threads, as long as each document is migrated by one thread.
+ * <br/><br/>
+ * A migration that fails is undone with an {@link UndoLog}, so the document is left at the version
+ * it was at, without reparsing it.
+ */
+public final class VersionControl {
+
+  /**
+   * The name of the version property.
+   */
+  public static final String VERSION_PROPERTY = "@version";
+
+  private final NavigableMap<Integer, VersionedTransformation> transformations = new TreeMap<>();
+  private final Map<Long, TransformationPlan> chains = new ConcurrentHashMap<>();
+
+  public VersionControl(VersionedTransformation... transformations) {
+    this(List.of(transformations));
+  }
+
+  /**
+   * Creates a version control of the given transformations, in any order.
+   *
+   * @param transformations the transformations.
+   * @throws IllegalArgumentException if two transformations have the same version.
+   */
+  public VersionControl(Collection<VersionedTransformation> transformations) {
+    for (VersionedTransformation transformation : transformations) {
+      if (this.transformations.putIfAbsent(transformation.version(), transformation) != null) {
+        throw new IllegalArgumentException("Duplicate version: " + transformation.version());
+      }
+    }
+  }
+
+  /**
+   * Gets the latest version.
+   *
+   * @return the version of the last transformation, or 0 if there are none.
+   */
+  public int getLatestVersion() {
+    return transformations.isEmpty() ? 0 : transformations.lastKey();
+  }
+
+  /**
+   * Gets the transformations, ordered by version.
+   *
+   * @return the transformations.
+   */
+  public List<VersionedTransformation> getTransformations() {
+    return List.copyOf(transformations.values());
+  }
+
+  /**
+   * Migrates the document to the latest version.
+   *
+   * @param document the document.
+   * @return the version the document is at afterwards.
+   */
+  public int apply(JsonDocument document) {
+    return apply(document, getLatestVersion());
+  }
+
+  /**
+   * Applies the transformations after the version of the document, up to and including the given
+   * version. The version of the document becomes the version of the last transformation applied.
+   * Documents at the given version or later are left as they are, and so are documents whose
+   * migration throws.
+   *
+   * @param document the document.
+   * @param version the version to migrate to.
+   * @return the version the document is at afterwards.
+   * @throws IllegalArgumentException if the document needs migrating, but its root is not an
+   *     object.
+   */
+  public int apply(JsonDocument document, int version) {
+    int current = versionOf(document);
+    Integer target = transformations.floorKey(version);
+    if (target == null || target <= current) {
+      return current;
+    }
+
+    checkVersionable(document);
+    UndoLog.atomically(() -> {
+      chain(current, target).apply(document);
+      setVersion(document, target);
+    });
+    return target;
+  }
+
+  /**
+   * Migrates the document of the history one version at a time, and records a version of the
+   * document after each, labelled with the comment of the transformation.
+   *
+   * @param history the history of the document.
+   * @param version the version to migrate to.
+   * @return the versions recorded, one per transformation applied.
+   * @throws IllegalArgumentException if the document needs migrating, but its root is not an
+   *     object.
+   */
+  public List<DocumentVersion> apply(DocumentHistory history, int version) {
+    JsonDocument document = history.getDocument();
+    int current = versionOf(document);
+    Collection<VersionedTransformation> needed = current >= version
+        ? List.of()
+        : transformations.subMap(current, false, version, true).values();
+    if (!needed.isEmpty()) {
+      checkVersionable(document);
+    }
+
+    List<DocumentVersion> recorded = new ArrayList<>(needed.size());
+    for (VersionedTransformation transformation : needed) {
+      int from = current;
+      int to = transformation.version();
+      recorded.add(history.apply(migrated -> {
+        chain(from, to).apply(migrated);
+        setVersion(migrated, to);
+      }, transformation.comment()));
+      current = to;
+    }
+
+    return recorded;
+  }
+
+  /**
+   * Gets the version of the document.
+   *
+   * @param document the document.
+   * @return the version, or 0 if it has none.
+   * @throws IllegalStateException if the version is not an int.
+   */
+  public static int versionOf(JsonDocument document) {
+    BaseNode root = root(document);
+    BaseNode version = root == null || !root.isObject() ? null : root.get(VERSION_PROPERTY);
+    if (version == null || !version.isValueNode()) {
+      return 0;
+    }
+    if (!version.isInt()) {
+      throw new IllegalStateException("The version must be an int: " + version);
+    }
+
+    return ((JsonValueNode) version).intValue();
+  }
+
+  /**
+   * Gets the number of compiled plans kept, one per pair of versions migrated between.
+   *
+   * @return the count.
+   */
+  public int getCompiledPlans() {
+    return chains.size();
+  }
+
+  /**
+   * Gets the compiled transformers of the versions after the first, up to and including the last.
+   */
+  TransformationPlan chain(int current, int to) {
+    // The chain only depends on the versions passed, so every version between two transformations
+    // shares a plan, and the cache is bounded by the transformations and not by the documents
+    // Transformation versions start at 1, so 0 is before all of them, also for negative versions
+    Integer floor = transformations.floorKey(current);
+    int from = floor == null ? 0 : floor;
+    long key = ((long) from << 32) | (to & 0xffffffffL);
+    return chains.computeIfAbsent(key, ignored -> {
+      List<Transformer> transformers = new ArrayList<>();
+      for (VersionedTransformation transformation
+          : transformations.subMap(from, false, to, true).values()) {
+        transformers.addAll(transformation.transformers());
+      }
+
+      return TransformationPlan.of(transformers);
+    });
+  }
+
+  private static void checkVersionable(JsonDocument document) {
+    BaseNode root = root(document);
+    if (root == null || !root.isObject()) {
+      throw new IllegalArgumentException("Only objects can be versioned: " + root);
+    }
+  }
+
+  private static void setVersion(JsonDocument document, int version) {
+    BaseNode root = root(document);
+    BaseNode existing = root.get(VERSION_PROPERTY);
+    if (existing != null && existing.isValueNode()) {
+      ((JsonValueNode) existing).setValue(version);
+      return;
+    }
+
+    JsonValueNode node = JsonDocument.createValueNode();
+    node.getIdentifier().setName(VERSION_PROPERTY);
+    node.getIdentifier().addClass("sysclass_version");
+    node.getIdentifier().addClass("int");
+    node.setValue(version);
+    root.addChild(node);
+  }
+
+  private static BaseNode root(JsonDocument document) {
+    return document.getRoots().isEmpty() ? null : document.getRoots().iterator().next();
+  }
+}
@@ -0,0 +1,28 @@
+package dk.mehmedbasic.jsonast.transform;
+
+import java.util.List;
+
+/**
+ * The transformers that bring a document from the version before to the given version.
+ * <br/><br/>
+ * The destinations of the transformers are ignored, they are applied to the migrated document by a
+ * {@link VersionControl}.
+ *
+ * @param version the version, starting from 1.
+ * @param comment a description of the changes.
+ * @param transformers the transformers, in order.
+ */
+public record VersionedTransformation(int version, String comment, List<Transformer> transformers) {
+
+  public VersionedTransformation {
+    if (version < 1) {
+      throw new IllegalArgumentException("Versions start from 1, got: " + version);
+    }
+
+    transformers = List.copyOf(transformers);
+  }
+
+  public VersionedTransformation(int version, String comment, Transformer... transformers) {
+    this(version, comment, List.of(transformers));
+  }
+}
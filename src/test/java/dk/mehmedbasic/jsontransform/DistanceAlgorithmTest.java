@@ -6,6 +6,8 @@ import dk.mehmedbasic.jsonast.BaseNode;
 import dk.mehmedbasic.jsonast.JsonDocument;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.List;
+import java.util.stream.Stream;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -32,6 +34,51 @@ public class DistanceAlgorithmTest {
     assertThat(distanceBetween(eNode, "H")).isEqualTo(2);
   }
 
+  @Test
+  public void distancesFollowMoves() {
+    List<BaseNode> nodes = Stream.of("H", "X", "Z", "Y", "A", "B", "D", "F", "C", "E")
+        .map(name -> document.selectSingle(name).orElseThrow())
+        .toList();
+
+    assertSameDistances(nodes);
+
+    BaseNode bNode = document.selectSingle("B").orElseThrow();
+    BaseNode zNode = document.selectSingle("Z").orElseThrow();
+    bNode.changeParent(zNode);
+
+    assertThat(bNode.distanceTo(zNode)).isEqualTo(0);
+    assertSameDistances(nodes);
+  }
+
+  private static void assertSameDistances(List<BaseNode> nodes) {
+    for (BaseNode a : nodes) {
+      for (BaseNode b : nodes) {
+        assertThat(a.distanceTo(b)).as("%s to %s", a, b).isEqualTo(listDistance(a, b));
+      }
+    }
+  }
+
+  /**
+   * The distance measured with the ancestor lists of both nodes.
+   */
+  private static int listDistance(BaseNode from, BaseNode to) {
+    List<BaseNode> fromPath = from.parents();
+    List<BaseNode> toPath = to.parents();
+    if (fromPath.contains(to)) {
+      return fromPath.indexOf(to);
+    }
+
+    int shared = 0;
+    for (BaseNode ancestor : fromPath) {
+      if (toPath.contains(ancestor)) {
+        shared = fromPath.size() - fromPath.indexOf(ancestor);
+        break;
+      }
+    }
+
+    return fromPath.size() + toPath.size() - 2 * shared + 1;
+  }
+
   private int distanceBetween(BaseNode eNode, String Y) {
     return eNode.distanceTo(document.selectSingle(Y).orElseThrow());
   }
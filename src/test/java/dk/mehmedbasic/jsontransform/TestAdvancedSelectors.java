@@ -1,9 +1,15 @@
 package dk.mehmedbasic.jsontransform;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
+import dk.mehmedbasic.jsonast.BaseNode;
 import dk.mehmedbasic.jsonast.JsonDocument;
 import dk.mehmedbasic.jsonast.JsonNodes;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -37,4 +43,56 @@ public class TestAdvancedSelectors {
     JsonNodes selection = document.select("[name*='Ratty']");
     JsonAssert.assertRootCount(selection, 1);
   }
+
+  @Test
+  public void compoundAppliesConditionBelowName() {
+    BaseNode son = document.selectSingle("son").orElseThrow();
+    Assert.assertSame(son, document.selectSingle("ned.object").orElseThrow());
+    JsonAssert.assertRootCount(document.select("son.object"), 0);
+    JsonAssert.assertRootCount(document.select("son.string"), 2);
+    JsonAssert.assertRootCount(document.select("castle-black.array .object[name^=Ratty]"), 1);
+    JsonAssert.assertRootCount(document.select("castle-black > residents.object"), 2);
+  }
+
+  @Test
+  public void childCombinator() {
+    JsonAssert.assertRootCount(document.select("ned > son"), 1);
+    JsonAssert.assertRootCount(document.select("root > son"), 0);
+    JsonAssert.assertRootCount(document.select("root son"), 1);
+    JsonAssert.assertRootCount(document.select("root > * > son"), 1);
+    JsonAssert.assertRootCount(document.select("residents > * > name"), 2);
+    JsonAssert.assertRootCount(document.select("castle-black > * > name"), 0);
+    JsonAssert.assertRootCount(document.select("residents .object > [name^=Ratty]"), 0);
+  }
+
+  @Test
+  public void selectorGroup() {
+    List<BaseNode> selected = new ArrayList<>(document.select("age, son, name, son").getRoots());
+    assertThat(selected).hasSize(7);
+
+    // Document order, not the order of the group
+    assertThat(selected.get(0).getIdentifier().getName()).isEqualTo("son");
+    JsonAssert.assertStringValue(selected.get(1), "Jon Snow");
+    JsonAssert.assertIntValue(selected.get(2), 16);
+    JsonAssert.assertStringValue(selected.get(3), "Aemon Targaryen");
+    JsonAssert.assertIntValue(selected.get(4), 104);
+
+    JsonAssert.assertRootCount(document.select("ned > son, residents .object > name"), 3);
+  }
+
+  @Test
+  public void longChainOnDeepTree() {
+    JsonDocument deep = new JsonDocument();
+    BaseNode current = JsonDocument.createObjectNode();
+    deep.addRoot(current);
+    for (int i = 0; i < 50_000; i++) {
+      BaseNode child = JsonDocument.createObjectNode();
+      child.getIdentifier().setName(i % 2 == 0 ? "a" : "b");
+      current.addChild(child);
+      current = child;
+    }
+
+    JsonAssert.assertRootCount(deep.select("a b a b a"), 50_000 / 2 - 2);
+    JsonAssert.assertRootCount(deep.select("b * b a"), 50_000 / 2 - 2);
+  }
 }
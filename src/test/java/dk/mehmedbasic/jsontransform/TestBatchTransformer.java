@@ -0,0 +1,126 @@
+package dk.mehmedbasic.jsontransform;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import dk.mehmedbasic.jsonast.JsonValueNode;
+import dk.mehmedbasic.jsonast.conversion.InlineIdsNamingStrategy;
+import dk.mehmedbasic.jsonast.transform.BatchResult;
+import dk.mehmedbasic.jsonast.transform.BatchTransformer;
+import dk.mehmedbasic.jsonast.transform.TransformationPlan;
+import dk.mehmedbasic.jsonast.transform.Transformer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests batch transformations.
+ */
+public class TestBatchTransformer {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private ExecutorService executor;
+
+  @Before
+  public void setup() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void transformsDirectoryAndReportsFailures() throws IOException, InterruptedException {
+    Path directory = folder.newFolder("documents").toPath();
+    for (int i = 0; i < 5; i++) {
+      Files.writeString(directory.resolve(i + ".json"), "{\"person\": {\"name\": \"" + i + "\"}}");
+    }
+    Files.writeString(directory.resolve("broken.json"), "{\"person\": ");
+    Files.writeString(directory.resolve("notes.txt"), "not a document");
+
+    TransformationPlan plan = TransformationPlan.of(
+        new Transformer("person > name", null).renameTo("fullName"));
+    BatchResult result = new BatchTransformer(plan, executor, 2)
+        .transformDirectory(directory, directory);
+
+    assertThat(result.getSucceeded()).isEqualTo(5);
+    assertThat(result.getFailed()).isEqualTo(1);
+    assertThat(result.getFailures().get(0).name()).endsWith("broken.json");
+    assertThat(result.getMaxLatencyNanos()).isGreaterThanOrEqualTo(result.getAverageLatencyNanos());
+
+    assertThat(Files.readString(directory.resolve("3.json")))
+        .isEqualTo("{\"person\":{\"fullName\":\"3\"}}");
+    assertThat(Files.readString(directory.resolve("broken.json"))).isEqualTo("{\"person\": ");
+    try (var files = Files.list(directory)) {
+      assertThat(files.filter(path -> path.toString().endsWith(".tmp"))).isEmpty();
+    }
+  }
+
+  @Test
+  public void reportsErrorsAsFailures() throws InterruptedException {
+    List<InputStream> inputs = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      inputs.add(new ByteArrayInputStream(("{\"value\": " + i + "}")
+          .getBytes(StandardCharsets.UTF_8)));
+    }
+
+    BatchResult result = new BatchTransformer(document -> {
+      JsonValueNode value = (JsonValueNode) document.selectSingle("value").orElseThrow();
+      if (value.intValue() % 2 == 1) {
+        throw new StackOverflowError();
+      }
+    }, new InlineIdsNamingStrategy(), executor, 2)
+        .transform(inputs.iterator(), position -> new ByteArrayOutputStream());
+
+    assertThat(result.getSucceeded()).isEqualTo(2);
+    assertThat(result.getFailed()).isEqualTo(2);
+    assertThat(result.getFailures().get(0).cause()).isInstanceOf(StackOverflowError.class);
+  }
+
+  @Test
+  public void boundsDocumentsInFlight() throws InterruptedException {
+    int count = 200;
+    List<InputStream> inputs = new ArrayList<>();
+    List<ByteArrayOutputStream> outputs = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      inputs.add(new ByteArrayInputStream(("{\"value\": " + i + "}")
+          .getBytes(StandardCharsets.UTF_8)));
+      outputs.add(new ByteArrayOutputStream());
+    }
+
+    AtomicInteger open = new AtomicInteger();
+    AtomicInteger mostOpen = new AtomicInteger();
+    BatchResult result = new BatchTransformer(document -> {
+      mostOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+      document.transform("value").manipulateValue(node -> node.setValue(node.intValue() * 2))
+          .apply();
+      Thread.yield();
+      open.decrementAndGet();
+    }, new InlineIdsNamingStrategy(), executor, 3).transform(inputs.iterator(), outputs::get);
+
+    assertThat(result.getSucceeded()).isEqualTo(count);
+    assertThat(result.getFailures()).isEmpty();
+    assertThat(mostOpen.get()).isLessThanOrEqualTo(3);
+    for (int i = 0; i < count; i++) {
+      assertThat(outputs.get(i).toString(StandardCharsets.UTF_8))
+          .isEqualTo("{\"value\":" + (i * 2) + "}");
+    }
+  }
+}
@@ -1,12 +1,21 @@
 package dk.mehmedbasic.jsontransform;
 
 import dk.mehmedbasic.jsonast.BaseNode;
+import dk.mehmedbasic.jsonast.FrozenDocument;
+import dk.mehmedbasic.jsonast.JsonArrayNode;
 import dk.mehmedbasic.jsonast.JsonDocument;
 import dk.mehmedbasic.jsonast.JsonNodes;
+import dk.mehmedbasic.jsonast.JsonObjectNode;
+import dk.mehmedbasic.jsonast.JsonValueNode;
+import dk.mehmedbasic.jsonast.selector.JsonSelectionEngine;
+import dk.mehmedbasic.jsonast.selector.SelectorCache;
+import dk.mehmedbasic.jsonast.selector.StreamingSelector;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,4 +52,257 @@ public class TestSelectors {
     BaseNode rat = prefixed.selectSingle(null).orElseThrow();
     JsonAssert.assertStringValue(rat.get("name"), "Ratty McRatson");
   }
+
+  @Test
+  public void selectByBuiltInClass() {
+    JsonAssert.assertRootCount(document.select(".string"), 6);
+    JsonAssert.assertRootCount(document.select("residents .object"), 2);
+  }
+
+  @Test
+  public void selectByCustomClass() {
+    BaseNode son = document.selectSingle("son").orElseThrow();
+    son.getIdentifier().addClass("heir");
+
+    JsonAssert.assertRootCount(document.select(".heir"), 1);
+    Assert.assertTrue(son.getIdentifier().getClasses().contains("object"));
+
+    son.getIdentifier().getClasses().remove("heir");
+    JsonAssert.assertRootCount(document.select(".heir"), 0);
+  }
+
+  @Test
+  public void indexFollowsChanges() {
+    // Build the index, then change the tree behind it
+    JsonAssert.assertRootCount(document.select("name"), 3);
+
+    BaseNode son = document.selectSingle("son").orElseThrow();
+    son.getIdentifier().setId("jon");
+    document.transform("castle-black").renameChild("residents", "guests").apply();
+    document.transform("son").deleteChild("name").apply();
+    document.selectSingle("ned").orElseThrow().removeNode(son);
+    document.selectSingle("guests").orElseThrow().addChild(son);
+
+    assertSameAsScan("name", 2);
+    assertSameAsScan("residents", 0);
+    assertSameAsScan("guests", 1);
+    assertSameAsScan("#jon", 1);
+    assertSameAsScan(".object", 6);
+    assertSameAsScan("guests .object", 3);
+    Assert.assertSame(son, document.selectSingle("#jon").orElseThrow());
+
+    // The last name comes from the moved object
+    List<BaseNode> ages = new ArrayList<>(document.select("age").getRoots());
+    Assert.assertSame(son, ages.get(2).getParent());
+  }
+
+  @Test
+  public void indexKeepsDocumentOrderOfMovedNodes() throws IOException {
+    StringBuilder json = new StringBuilder("{\"groups\":[");
+    for (int i = 0; i < 2_000; i++) {
+      json.append(i == 0 ? "" : ",").append("{\"item\":").append(i).append("}");
+    }
+    document = JsonDocument.parse(json.append("]}").toString());
+    JsonAssert.assertRootCount(document.select("item"), 2_000);
+
+    // Every item goes into the same place, so the order labels there run out again and again
+    BaseNode groups = document.selectSingle("groups").orElseThrow();
+    for (int i = 1_999; i > 0; i -= 2) {
+      BaseNode item = groups.get(i).get("item");
+      item.getIdentifier().setName("moved");
+      item.changeParent(groups.get(0));
+    }
+
+    assertSameAsScan("item", 1_000);
+    assertSameAsScan("moved", 1_000);
+    List<BaseNode> moved = new ArrayList<>(document.select("moved").getRoots());
+    JsonAssert.assertIntValue(moved.get(0), 1_999);
+    JsonAssert.assertIntValue(moved.get(999), 1);
+  }
+
+  @Test
+  public void matchesRightToLeft() {
+    assertSameAsWalk("residents name", 2);
+    assertSameAsWalk("ned > * > name", 1);
+    assertSameAsWalk("castle-black > name", 0);
+    assertSameAsWalk(".object > age", 3);
+    assertSameAsWalk("castle-black .object #missing", 0);
+
+    document.selectSingle("son").orElseThrow().getIdentifier().addClass("heir");
+    assertSameAsWalk("ned .heir", 1);
+  }
+
+  @Test
+  public void parallelSelection() {
+    JsonDocument wide = new JsonDocument();
+    JsonArrayNode array = new JsonArrayNode();
+    wide.addRoot(array);
+    for (int i = 0; i < 5_000; i++) {
+      JsonObjectNode object = new JsonObjectNode();
+      object.getIdentifier().setName("item");
+      JsonValueNode value = new JsonValueNode(i);
+      value.getIdentifier().setName("value");
+      object.addChild(value);
+      array.addChild(object);
+    }
+    wide.addExclusion(array.get(42));
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      JsonNodes parallel = wide.parallel(pool);
+      Assert.assertTrue(parallel.isParallel());
+      Assert.assertTrue(parallel.select("value").isParallel());
+
+      List<BaseNode> expected = new ArrayList<>(wide.findByName("value").getRoots());
+      List<BaseNode> actual = new ArrayList<>(parallel.findByName("value").getRoots());
+      Assert.assertEquals(4_999, actual.size());
+      Assert.assertEquals(expected, actual);
+      JsonAssert.assertRootCount(parallel.select("item value"), 4_999);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void parallelSelectionAfterDeletes() throws IOException {
+    StringBuilder json = new StringBuilder("{\"items\": [");
+    for (int i = 0; i < 20_000; i++) {
+      json.append(i == 0 ? "" : ",").append("{\"value\": ").append(i).append('}');
+    }
+    json.append("]}");
+
+    JsonDocument wide = JsonDocument.parse(json.toString());
+    BaseNode items = wide.selectSingle("items").orElseThrow();
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (int run = 1; run <= 300; run++) {
+        List<BaseNode> removed = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+          removed.add(items.get(i * 1_000));
+        }
+        // Few enough removals to leave them in the list until it is read by index
+        items.removeNodes(removed);
+
+        List<BaseNode> actual = new ArrayList<>(
+            wide.parallel(pool).select(".object > .int").getRoots());
+        List<BaseNode> expected = new ArrayList<>(wide.select(".object > .int").getRoots());
+        Assert.assertEquals(20_000 - run * 10, expected.size());
+        Assert.assertEquals(expected.size(), actual.size());
+        Assert.assertEquals(expected, actual);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void streamingSelection() throws IOException {
+    StreamingSelector selector = new StreamingSelector("residents > .object, .int");
+    List<BaseNode> streamed = selector.select(
+        new FileInputStream("src/main/resources/move-rename.json"));
+
+    Assert.assertEquals(5, streamed.size());
+    JsonAssert.assertIntValue(streamed.get(0), 16);
+    JsonAssert.assertSize(streamed.get(1), 3);
+    JsonAssert.assertIntValue(streamed.get(2), 104);
+    JsonAssert.assertStringValue(((JsonObjectNode) streamed.get(3)).get("name"), "Ratty McRatson");
+    JsonAssert.assertIntValue(streamed.get(4), 2);
+    Assert.assertNull(streamed.get(1).getParent());
+    Assert.assertSame(streamed.get(1), streamed.get(2).getParent());
+
+    Assert.assertThrows(UnsupportedOperationException.class,
+        () -> new StreamingSelector("[name=Jon]"));
+  }
+
+  @Test
+  public void compiledSelectorsAreCached() {
+    SelectorCache cache = new SelectorCache(2);
+    JsonSelectionEngine names = cache.get("name");
+    Assert.assertSame(names, cache.get("name"));
+    Assert.assertEquals(1, cache.getHits());
+    Assert.assertEquals(1, cache.getMisses());
+
+    cache.get("age");
+    cache.get("title");
+    Assert.assertEquals(2, cache.size());
+    Assert.assertNotSame(names, cache.get("name"));
+    Assert.assertEquals(4, cache.getMisses());
+
+    JsonAssert.assertRootCount(document.selectCompiled(names), 3);
+    JsonAssert.assertRootCount(document.selectCompiled(JsonSelectionEngine.compile(".string")), 6);
+  }
+
+  @Test
+  public void frozenDocumentSelectsFromManyThreads() throws InterruptedException {
+    FrozenDocument frozen = document.freeze();
+    document.transform("name").renameTo("title").apply();
+    JsonAssert.assertRootCount(frozen.select("name"), 3);
+
+    String[] selectors = {"name", "residents > .object", ".string", "ned > * > name", "#missing"};
+    int[] counts = {3, 2, 6, 1, 0};
+    List<Throwable> errors = new CopyOnWriteArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < 500; i++) {
+          int which = i % selectors.length;
+          if (frozen.select(selectors[which]).getRootCount() != counts[which]) {
+            errors.add(new AssertionError("Wrong count for " + selectors[which]));
+          }
+        }
+      });
+      thread.setUncaughtExceptionHandler((ignored, error) -> errors.add(error));
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Assert.assertEquals(List.of(), errors);
+    JsonAssert.assertStringValue(frozen.selectSingle("son name").orElseThrow(), "Jon Snow");
+  }
+
+  @Test
+  public void frozenDocumentRejectsChanges() {
+    FrozenDocument frozen = document.freeze();
+    Assert.assertSame(frozen, frozen.freeze());
+
+    BaseNode son = frozen.selectSingle("son").orElseThrow();
+    BaseNode name = son.get("name");
+    Assert.assertTrue(son.isFrozen());
+    Assert.assertThrows(UnsupportedOperationException.class, () -> frozen.transform("son"));
+    Assert.assertThrows(UnsupportedOperationException.class, () -> frozen.addRoot(son));
+    Assert.assertThrows(UnsupportedOperationException.class, () -> son.removeNode(name));
+    Assert.assertThrows(UnsupportedOperationException.class,
+        () -> son.addChild(new JsonValueNode(1)));
+    Assert.assertThrows(UnsupportedOperationException.class,
+        () -> new JsonObjectNode().addChild(name));
+    Assert.assertThrows(UnsupportedOperationException.class,
+        () -> ((JsonValueNode) name).setValue("Ned"));
+    Assert.assertThrows(UnsupportedOperationException.class,
+        () -> name.getIdentifier().addClass("heir"));
+    Assert.assertThrows(UnsupportedOperationException.class,
+        () -> frozen.select("son").transform().renameTo("daughter").apply());
+
+    JsonAssert.assertStringValue(frozen.selectSingle("son > name").orElseThrow(), "Jon Snow");
+    Assert.assertSame(son, name.getParent());
+  }
+
+  private void assertSameAsWalk(String selector, int count) {
+    JsonNodes indexed = document.select(selector);
+    // The roots are not top level nodes, so the matcher walks the tree
+    JsonNodes walked = document.select("root").select(selector);
+
+    JsonAssert.assertRootCount(indexed, count);
+    Assert.assertEquals(new ArrayList<>(walked.getRoots()), new ArrayList<>(indexed.getRoots()));
+  }
+
+  private void assertSameAsScan(String selector, int count) {
+    JsonNodes indexed = document.select(selector);
+    JsonNodes scanned = document.select(null).select(selector);
+
+    JsonAssert.assertRootCount(indexed, count);
+    Assert.assertEquals(new ArrayList<>(scanned.getRoots()), new ArrayList<>(indexed.getRoots()));
+  }
 }
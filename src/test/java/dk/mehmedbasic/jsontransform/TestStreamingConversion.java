@@ -0,0 +1,149 @@
+package dk.mehmedbasic.jsontransform;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.mehmedbasic.jsonast.BaseNode;
+import dk.mehmedbasic.jsonast.JsonDocument;
+import dk.mehmedbasic.jsonast.conversion.BaseNodeParser;
+import dk.mehmedbasic.jsonast.conversion.BaseNodeWriter;
+import dk.mehmedbasic.jsonast.conversion.ConversionNamingStrategy;
+import dk.mehmedbasic.jsonast.conversion.DefaultNamingStrategy;
+import dk.mehmedbasic.jsonast.conversion.InlineIdsNamingStrategy;
+import dk.mehmedbasic.jsonast.conversion.JacksonConverter;
+import dk.mehmedbasic.jsonast.transform.Transformer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.UnaryOperator;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the streaming parser and writer against the Jackson tree conversion.
+ */
+public class TestStreamingConversion {
+
+  private static final String[] FILES = {
+      "src/main/resources/move-rename.json",
+      "src/main/resources/distance-test.json",
+      "src/main/resources/thesis-example.json"
+  };
+
+  @Test
+  public void parserMatchesConverter() throws IOException {
+    for (String file : FILES) {
+      JsonNode tree = new ObjectMapper().readTree(new FileInputStream(file));
+      JsonDocument converted = JacksonConverter.asTransformable(tree,
+          new InlineIdsNamingStrategy());
+      JsonDocument parsed = new BaseNodeParser(new InlineIdsNamingStrategy())
+          .parse(new FileInputStream(file));
+
+      assertThat(rootOf(parsed).toString()).isEqualTo(rootOf(converted).toString());
+      assertThat(JacksonConverter.asJacksonNode(parsed))
+          .isEqualTo(JacksonConverter.asJacksonNode(converted));
+    }
+  }
+
+  @Test
+  public void parserKeepsInlineIds() throws IOException {
+    JsonDocument document = JsonDocument.parse("{\"person #2a\": {\"name\": \"Bill\"}}");
+
+    BaseNode person = document.selectSingle("person").orElseThrow();
+    assertThat(person.getIdentifier().getId()).isEqualTo("2a");
+    assertThat(person.getIdentifier().getClasses()).contains("object");
+    assertThat(document.select("#2a name").getRootCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void parserHandlesEmptyInput() throws IOException {
+    assertThat(JsonDocument.parse("").isEmpty()).isTrue();
+  }
+
+  @Test
+  public void writerMatchesConverter() throws IOException {
+    for (String file : FILES) {
+      JsonDocument document = JsonDocument.parse(new FileInputStream(file));
+      document.transform("").add("extra", "value").apply();
+
+      assertWriterMatches(document, new DefaultNamingStrategy());
+      assertWriterMatches(document, new InlineIdsNamingStrategy());
+    }
+  }
+
+  @Test
+  public void writerKeepsInlineIdsInArrays() throws IOException {
+    JsonDocument document = JsonDocument.parse(
+        "{\"list #1f\": [{\"@id\": \"x\", \"a\": 1}, {\"b\": 2.5}, true, null]}");
+    document.transform("b").renameTo("a").apply();
+    BaseNode duplicate = JsonDocument.createTextNode("duplicate");
+    duplicate.getIdentifier().setName("a");
+    document.select("list").getRoots().iterator().next().get(0).addChild(duplicate);
+
+    assertWriterMatches(document, new InlineIdsNamingStrategy());
+  }
+
+  @Test
+  public void transformerStreamsLocalFunctions() throws IOException {
+    UnaryOperator<Transformer> functions = transformer -> transformer
+        .renameChild("title", "role")
+        .deleteChild("age")
+        .manipulateValue("name", node -> node.setValue(node.stringValue().toUpperCase()))
+        .add("seen", true);
+
+    assertStreamsLikeTree("residents .object", functions);
+    assertStreamsLikeTree("residents > *", functions);
+    assertStreamsLikeTree("[name^=Ratty]", functions);
+    assertStreamsLikeTree("residents", transformer -> transformer.deleteChild(0).renameTo("crew"));
+    assertStreamsLikeTree("son, residents", transformer -> transformer.renameTo("ned"));
+  }
+
+  @Test
+  public void transformerRejectsMovesWhenStreaming() {
+    Transformer transformer = new Transformer("son", null).renameTo("bastard").moveTo("root");
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    Assert.assertThrows(UnsupportedOperationException.class, () -> transformer.applyStreaming(
+        new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8)), output));
+  }
+
+  /**
+   * Streams two copies of the document as newline delimited JSON, and compares each line with
+   * transforming the parsed document.
+   */
+  private static void assertStreamsLikeTree(String selector, UnaryOperator<Transformer> functions)
+      throws IOException {
+    BaseNodeWriter writer = new BaseNodeWriter(new InlineIdsNamingStrategy());
+    String line = writer.writeAsString(JsonDocument.parse(new FileInputStream(FILES[0])));
+
+    JsonDocument expected = JsonDocument.parse(line);
+    functions.apply(expected.transform(selector)).apply();
+    String expectedLine = writer.writeAsString(expected);
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    functions.apply(new Transformer(selector, null)).applyStreaming(
+        new ByteArrayInputStream((line + "\n" + line).getBytes(StandardCharsets.UTF_8)), output);
+
+    assertThat(expectedLine).isNotEqualTo(line);
+    assertThat(output.toString(StandardCharsets.UTF_8))
+        .isEqualTo(expectedLine + "\n" + expectedLine);
+  }
+
+  private static void assertWriterMatches(JsonDocument document,
+      ConversionNamingStrategy strategy) throws IOException {
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode expected = JacksonConverter.asJacksonNode(document, strategy);
+
+    assertThat(new BaseNodeWriter(strategy).writeAsString(document))
+        .isEqualTo(mapper.writeValueAsString(expected));
+    assertThat(new BaseNodeWriter(strategy, true).writeAsString(document))
+        .isEqualTo(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(expected));
+  }
+
+  private static BaseNode rootOf(JsonDocument document) {
+    return document.getRoots().iterator().next();
+  }
+}
@@ -5,20 +5,35 @@ import static org.assertj.core.api.Assertions.assertThat;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import dk.mehmedbasic.jsonast.BaseNode;
 import dk.mehmedbasic.jsonast.JsonArrayNode;
 import dk.mehmedbasic.jsonast.JsonDocument;
+import dk.mehmedbasic.jsonast.JsonIdentifier;
 import dk.mehmedbasic.jsonast.JsonNodes;
 import dk.mehmedbasic.jsonast.JsonObjectNode;
+import dk.mehmedbasic.jsonast.JsonPatchRecorder;
 import dk.mehmedbasic.jsonast.JsonType;
 import dk.mehmedbasic.jsonast.JsonValueNode;
+import dk.mehmedbasic.jsonast.UndoLog;
+import dk.mehmedbasic.jsonast.conversion.BaseNodeWriter;
+import dk.mehmedbasic.jsonast.conversion.InlineIdsNamingStrategy;
 import dk.mehmedbasic.jsonast.conversion.JacksonConverter;
+import dk.mehmedbasic.jsonast.transform.FragmentCache;
 import dk.mehmedbasic.jsonast.transform.ManipulateValueFunction;
 import dk.mehmedbasic.jsonast.transform.MergeValueFunction;
+import dk.mehmedbasic.jsonast.transform.TransformationPlan;
+import dk.mehmedbasic.jsonast.transform.Transformer;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +58,13 @@ public class TestTransform {
     JsonAssert.assertRootCount(document.select("ned"), 2);
   }
 
+  @Test
+  public void renameGroup() {
+    document.transform("son, title").renameTo("ned").apply();
+    JsonAssert.assertRootCount(document.select("ned"), 4);
+    JsonAssert.assertRootCount(document.select("title"), 0);
+  }
+
   @Test
   public void moveUpward() {
     document.transform("residents").moveTo("ned").apply();
@@ -230,4 +252,529 @@ public class TestTransform {
     String string = new ObjectMapper().writer().writeValueAsString(node);
     System.out.println(string);
   }
+
+  @Test
+  public void wideObjectLookups() {
+    BaseNode son = document.selectSingle("son").orElseThrow();
+    for (int i = 0; i < 100; i++) {
+      document.transform("son").add("key" + i, i).apply();
+    }
+
+    JsonAssert.assertIntValue(son.get("key42"), 42);
+
+    document.transform("son").renameChild("key42", "answer").deleteChild("key7").apply();
+    assertThat(son.get("key42")).isNull();
+    assertThat(son.get("key7")).isNull();
+    JsonAssert.assertIntValue(son.get("answer"), 42);
+    JsonAssert.assertStringValue(son.get("name"), "Jon Snow");
+
+    document.transform("son").add("name", "Bastard").deleteChild("name").apply();
+    JsonAssert.assertStringValue(son.get("name"), "Bastard");
+  }
+
+  @Test
+  public void wideObjectFollowsRenamedIdentifiers() {
+    JsonObjectNode object = JsonDocument.createObjectNode();
+    for (int i = 0; i < 20; i++) {
+      BaseNode child = JsonDocument.createNumberNode(i);
+      child.getIdentifier().setName("key" + i);
+      object.addChild(child);
+    }
+
+    object.get("key3").getIdentifier().setName("answer");
+    JsonAssert.assertIntValue(object.get("answer"), 3);
+    assertThat(object.get("key3")).isNull();
+
+    object.get("key1").getIdentifier().setName("answer");
+    object.get("key9").getIdentifier().setName("answer");
+    JsonAssert.assertIntValue(object.get("answer"), 1);
+
+    object.removeNode(object.get("answer"));
+    JsonAssert.assertIntValue(object.get("answer"), 3);
+
+    object.get("answer").setIdentifier(new JsonIdentifier("other"));
+    JsonAssert.assertIntValue(object.get("answer"), 9);
+    JsonAssert.assertIntValue(object.get("other"), 3);
+  }
+
+  @Test
+  public void bulkArrayRemoval() {
+    JsonArrayNode array = JsonDocument.createArrayNode();
+    List<BaseNode> odd = new ArrayList<>();
+    for (int i = 0; i < 100_000; i++) {
+      BaseNode value = JsonDocument.createNumberNode(i);
+      array.addChild(value);
+      if (i % 2 == 1) {
+        odd.add(value);
+      }
+    }
+
+    array.removeNodes(odd);
+    JsonAssert.assertSize(array, 50_000);
+    JsonAssert.assertDoubleValue(array.get(21), 42);
+    assertThat(odd.get(0).getParent()).isNull();
+
+    BaseNode last = array.get(49_999);
+    array.removeNode(array.get(0));
+    assertThat(array.getChildren().indexOf(last)).isEqualTo(49_998);
+  }
+
+  @Test
+  public void bulkMoveKeepsTheOrder() {
+    JsonArrayNode source = JsonDocument.createArrayNode();
+    JsonArrayNode target = JsonDocument.createArrayNode();
+    Map<BaseNode, BaseNode> moves = new LinkedHashMap<>();
+    for (int i = 0; i < 100_000; i++) {
+      BaseNode value = JsonDocument.createNumberNode(i);
+      source.addChild(value);
+      if (i % 2 == 0) {
+        moves.put(value, target);
+      }
+    }
+
+    BaseNode.changeParents(moves);
+    JsonAssert.assertSize(source, 50_000);
+    JsonAssert.assertSize(target, 50_000);
+    JsonAssert.assertDoubleValue(source.get(21), 43);
+    JsonAssert.assertDoubleValue(target.get(21), 42);
+    assertThat(source.getChildren().indexOf(source.get(49_999))).isEqualTo(49_999);
+  }
+
+  @Test
+  public void mergeSeesDestinationsChangedByEarlierMerges() throws JsonProcessingException {
+    JsonDocument merged = JsonDocument.parse("{\"list\":[],\"box\":{},\"item\":{}}");
+    BaseNode list = merged.selectSingle("list").orElseThrow();
+    BaseNode item = merged.selectSingle("item").orElseThrow();
+
+    // The box loses its name inside the list, so it no longer ties with the list for the item
+    merged.transform("box, item").merge("box, list").apply();
+
+    JsonAssert.assertSize(list, 2);
+    assertThat(item.getParent()).isSameAs(list);
+  }
+
+  @Test
+  public void moveManyToClosest() throws JsonProcessingException {
+    StringBuilder json = new StringBuilder("{\"groups\":[");
+    for (int i = 0; i < 20_000; i++) {
+      json.append(i == 0 ? "" : ",").append("{\"item\":").append(i).append(",\"target\":{}}");
+    }
+    // Two targets at the same distance, the item stays put
+    json.append(",{\"item\":-1,\"a\":{\"target\":{}},\"b\":{\"target\":{}}}");
+    JsonDocument groups = JsonDocument.parse(json.append("]}").toString());
+
+    groups.transform("item").moveTo("target").apply();
+
+    JsonNodes targets = groups.select("target");
+    JsonAssert.assertRootCount(groups.select("target item"), 20_000);
+    BaseNode first = targets.getRoots().iterator().next();
+    JsonAssert.assertIntValue(first.get("item"), 0);
+
+    BaseNode ambiguous = groups.select("groups").getRoots().iterator().next().get(20_000);
+    JsonAssert.assertIntValue(ambiguous.get("item"), -1);
+  }
+
+  @Test
+  public void planMatchesSeparateTransformers() throws IOException {
+    JsonDocument planned = JsonDocument.parse(
+        new FileInputStream("src/main/resources/move-rename.json"));
+    TransformationPlan.of(
+        new Transformer("residents", null).renameTo("crew").deleteChild(0),
+        new Transformer("crew .object, son", null).deleteChild("age").renameChild("title", "role"),
+        new Transformer("[name]", null).manipulateValue(node -> node.setValue("Nameless")))
+        .apply(planned);
+
+    document.transform("residents").renameTo("crew").deleteChild(0).apply();
+    document.transform("crew .object, son").deleteChild("age").renameChild("title", "role")
+        .apply();
+    document.transform("[name]").manipulateValue(node -> node.setValue("Nameless")).apply();
+
+    assertThat(JacksonConverter.asJacksonNode(planned))
+        .isEqualTo(JacksonConverter.asJacksonNode(document));
+
+    // The renamed array is no longer selected, so nothing is deleted from it
+    JsonAssert.assertSize(planned.selectSingle("crew").orElseThrow(), 2);
+    JsonAssert.assertRootCount(planned.select("role"), 2);
+    JsonAssert.assertRootCount(planned.select("age"), 0);
+    JsonAssert.assertStringValue(planned.selectSingle("son name").orElseThrow(), "Nameless");
+  }
+
+  @Test
+  public void planMatchesSelectingBeforeEveryFunction() throws IOException {
+    Random random = new Random(18);
+    BaseNodeWriter writer = new BaseNodeWriter(new InlineIdsNamingStrategy());
+    int compared = 0;
+    for (int trial = 0; trial < 2_000; trial++) {
+      StringBuilder json = new StringBuilder();
+      randomJson(random, json, 0, true);
+      List<String> selectors = new ArrayList<>();
+      List<List<UnaryOperator<Transformer>>> functions = new ArrayList<>();
+      for (int i = random.nextInt(4); i >= 0; i--) {
+        selectors.add(randomSelector(random));
+        List<UnaryOperator<Transformer>> builder = new ArrayList<>();
+        for (int j = random.nextInt(3); j >= 0; j--) {
+          builder.add(randomFunction(random));
+        }
+        functions.add(builder);
+      }
+
+      JsonDocument expected = JsonDocument.parse(json.toString());
+      try {
+        for (int i = 0; i < selectors.size(); i++) {
+          for (UnaryOperator<Transformer> function : functions.get(i)) {
+            function.apply(expected.transform(selectors.get(i))).apply();
+          }
+        }
+      } catch (RuntimeException e) {
+        // The same failure is not compared, for instance a manipulated value of the wrong type
+        continue;
+      }
+
+      JsonDocument planned = JsonDocument.parse(json.toString());
+      List<Transformer> transformers = new ArrayList<>();
+      for (int i = 0; i < selectors.size(); i++) {
+        Transformer transformer = new Transformer(selectors.get(i), null);
+        functions.get(i).forEach(function -> function.apply(transformer));
+        transformers.add(transformer);
+      }
+      TransformationPlan.of(transformers).apply(planned);
+
+      assertThat(writer.writeAsString(planned))
+          .as("%s with %s", json, selectors)
+          .isEqualTo(writer.writeAsString(expected));
+      compared++;
+    }
+
+    assertThat(compared).isGreaterThan(1_000);
+  }
+
+  @Test
+  public void addJsonGivesEverySelectedNodeItsOwnCopy() {
+    String json = "{\"street\": \"Main\", \"numbers\": [1, 2]}";
+    FragmentCache.shared().clear();
+    document.transform("residents .object").addJson("address", json).apply();
+    document.transform("son").addJson("address", json).apply();
+
+    List<BaseNode> addresses = new ArrayList<>(document.select("address").getRoots());
+    assertThat(addresses).hasSize(3);
+    assertThat(addresses.get(0)).isNotSameAs(addresses.get(1));
+    assertThat(addresses.get(0).getParent()).isNotSameAs(addresses.get(1).getParent());
+    assertThat(FragmentCache.shared().getMisses()).isEqualTo(1);
+    assertThat(FragmentCache.shared().getHits()).isEqualTo(1);
+
+    // Changing one copy leaves the others alone
+    ((JsonValueNode) addresses.get(0).get("street")).setValue("Side");
+    JsonAssert.assertStringValue(addresses.get(1).get("street"), "Main");
+    JsonAssert.assertSize(addresses.get(2).get("numbers"), 2);
+  }
+
+  @Test
+  public void deepCopyIsIndependent() throws JsonProcessingException {
+    JsonDocument parsed = JsonDocument.parse("{\"a\": {\"b\": [1, {\"c\": true}]}}");
+    BaseNode original = parsed.getRoots().iterator().next();
+    BaseNode frozen = parsed.freeze().getRoots().iterator().next();
+
+    BaseNode copy = frozen.deepCopy();
+    assertThat(copy.isFrozen()).isFalse();
+    assertThat(copy.getParent()).isNull();
+    JsonDocument copied = new JsonDocument();
+    copied.addRoot(copy);
+    assertThat(JacksonConverter.asJacksonNode(copied))
+        .isEqualTo(JacksonConverter.asJacksonNode(parsed));
+
+    copy.get("a").get("b").addChild(new JsonValueNode("extra"));
+    JsonAssert.assertSize(original.get("a").get("b"), 2);
+    JsonAssert.assertSize(frozen.get("a").get("b"), 2);
+  }
+
+  @Test
+  public void applyAtomicallyUndoesFailedTransformers() {
+    JsonNode original = JacksonConverter.asJacksonNode(document);
+    JsonAssert.assertRootCount(document.select("residents name"), 2);
+
+    Assert.assertThrows(IllegalArgumentException.class, () -> UndoLog.atomically(() -> {
+      document.transform("residents").moveTo("ned").apply();
+      document.transform("son").renameTo("heir").deleteChild("age").add("title", "Lord").apply();
+      document.transform("title").renameTo("role").apply();
+      document.transform("heir").renameChild("name", "fullName")
+          .manipulateValue("name", node -> node.setValue("Lord Snow")).apply();
+    }));
+
+    Assert.assertThrows(IllegalStateException.class, () -> document.transform("son")
+        .deleteChild("age").manipulateValue("status", node -> node.setValue(node.intValue() + 1))
+        .applyAtomically());
+
+    assertThat(JacksonConverter.asJacksonNode(document)).isEqualTo(original);
+    BaseNode residents = document.selectSingle("residents").orElseThrow();
+    assertThat(residents.getParent().getIdentifier().getName()).isEqualTo("castle-black");
+    JsonAssert.assertRootCount(document.select("residents name"), 2);
+    JsonAssert.assertRootCount(document.select("ned residents"), 0);
+    JsonAssert.assertRootCount(document.findByName("heir"), 0);
+    JsonAssert.assertRootCount(document.findByName("role"), 0);
+    JsonAssert.assertIntValue(document.selectSingle("son age").orElseThrow(), 16);
+
+    // The document is as good as new afterwards
+    document.transform("residents").moveTo("ned").apply();
+    JsonAssert.assertRootCount(document.select("ned residents"), 1);
+  }
+
+  @Test
+  public void rollbackKeepsTheIndex() throws JsonProcessingException {
+    JsonDocument parsed = JsonDocument.parse("{\"arr\": [{\"leaf\": 1}]}");
+    BaseNode root = parsed.getRoots().iterator().next();
+    BaseNode leaf = parsed.selectSingle("leaf").orElseThrow();
+
+    UndoLog log = UndoLog.begin();
+    JsonObjectNode box = new JsonObjectNode();
+    box.getIdentifier().setName("box");
+    JsonValueNode label = new JsonValueNode("new");
+    label.getIdentifier().setName("label");
+    box.addChild(label);
+    root.addChild(box);
+    leaf.changeParent(box);
+    JsonAssert.assertRootCount(parsed.select("box leaf"), 1);
+    log.rollback();
+
+    JsonAssert.assertRootCount(parsed.select("leaf"), 1);
+    JsonAssert.assertRootCount(parsed.select("arr leaf"), 1);
+    JsonAssert.assertRootCount(parsed.select("box"), 0);
+    JsonAssert.assertRootCount(parsed.select("label"), 0);
+    assertThat(leaf.getParent().getParent()).isSameAs(root.get("arr"));
+  }
+
+  @Test
+  public void rollbackPutsBackChildrenParentsAndRoots() throws JsonProcessingException {
+    JsonDocument parsed = JsonDocument.parse("{\"arr\": [], \"box\": {}}");
+    BaseNode root = parsed.getRoots().iterator().next();
+    BaseNode array = root.get("arr");
+    BaseNode box = root.get("box");
+    List<BaseNode> values = new ArrayList<>();
+    for (int i = 0; i < 1_000; i++) {
+      BaseNode value = JsonDocument.createNumberNode(i);
+      value.getIdentifier().setName("value");
+      array.addChild(value);
+      values.add(value);
+    }
+
+    UndoLog log = UndoLog.begin();
+    array.removeNodes(values.subList(100, 900));
+    array.removeNode(values.get(0));
+    box.addChild(values.get(1));
+    array.addChild(JsonDocument.createNumberNode(-1));
+    parsed.addRoot(JsonDocument.createObjectNode());
+    JsonAssert.assertRootCount(parsed.findByName("value"), 199);
+    log.rollback();
+
+    assertThat(array.getChildren()).containsExactlyElementsOf(values);
+    for (BaseNode value : values) {
+      assertThat(value.getParent()).isSameAs(array);
+    }
+    JsonAssert.assertSize(box, 0);
+    assertThat(parsed.getRoots()).containsExactly(root);
+    assertThat(parsed.findByName("value").getRoots()).containsExactlyElementsOf(values);
+  }
+
+  @Test
+  public void applyAsPatchRecordsTheChanges() throws JsonProcessingException {
+    JsonDocument parsed = JsonDocument.parse(
+        "{\"person\": {\"name\": \"Jon\", \"age\": 16, \"tags\": [\"a\", \"b\"]}, \"box\": {}}");
+
+    ArrayNode renamed = parsed.transform("person").renameChild("name", "fullName")
+        .applyAsPatch(null);
+    assertThat(renamed.toString())
+        .isEqualTo("[{\"op\":\"move\",\"from\":\"/person/name\",\"path\":\"/person/fullName\"}]");
+
+    ArrayNode changed = parsed.transform("person").deleteChild("age").add("title", "Lord")
+        .manipulateValue("fullName", node -> node.setValue("Jon Snow"))
+        .applyAsPatch(null);
+    assertThat(changed.toString()).isEqualTo("["
+        + "{\"op\":\"remove\",\"path\":\"/person/age\"},"
+        + "{\"op\":\"add\",\"path\":\"/person/title\",\"value\":\"Lord\"},"
+        + "{\"op\":\"replace\",\"path\":\"/person/fullName\",\"value\":\"Jon Snow\"}]");
+
+    ArrayNode moved = parsed.transform("tags").moveTo("box").applyAsPatch(null);
+    assertThat(moved.toString())
+        .isEqualTo("[{\"op\":\"move\",\"from\":\"/person/tags\",\"path\":\"/box/tags\"}]");
+
+    ArrayNode deleted = parsed.transform("tags").deleteChild(0).applyAsPatch(null);
+    assertThat(deleted.toString()).isEqualTo("[{\"op\":\"remove\",\"path\":\"/box/tags/0\"}]");
+  }
+
+  @Test
+  public void patchesTurnEachVersionIntoTheNext() throws JsonProcessingException {
+    JsonDocument parsed = JsonDocument.parse("{\"person\": {\"name\": \"Jon\", \"age\": 16, "
+        + "\"tags\": [\"a\", \"b\"], \"house\": {\"seat\": \"Winterfell\"}}, \"box\": {}, "
+        + "\"list\": [1, 2, {\"x\": 1}], \"scores\": {\"first\": 1}, \"total\": 10}");
+    MergeValueFunction sum = new MergeValueFunction() {
+      @Override
+      public void applyValue(JsonValueNode source, JsonValueNode destination) {
+        destination.setValue(destination.intValue() + source.intValue());
+      }
+    };
+    List<Supplier<Transformer>> steps = List.of(
+        () -> parsed.transform("age").renameTo("years"),
+        () -> parsed.transform("person").renameChild("name", "fullName"),
+        () -> parsed.transform("tags").moveTo("box"),
+        () -> parsed.transform("first").merge("total", sum),
+        () -> parsed.transform("house").merge("box"),
+        () -> parsed.transform("tags .string").merge("list"),
+        () -> parsed.transform("person").deleteChild("years"),
+        () -> parsed.transform("list").deleteChild(0),
+        () -> parsed.transform("list").manipulateValue(0, node -> node.setValue(20)),
+        () -> parsed.transform("box").add("title", "Lord").addJson("extra", "{\"k\": [1]}"),
+        () -> parsed.transform("list").addValue(3),
+        () -> parsed.transform("person").partition(List.of(List.of("info", "fullName"))));
+
+    ArrayNode patch = null;
+    for (Supplier<Transformer> step : steps) {
+      JsonNode before = JacksonConverter.asJacksonNode(parsed);
+      patch = step.get().applyAsPatch(null);
+
+      assertThat(applyPatch(before, patch)).as("%s", patch)
+          .isEqualTo(JacksonConverter.asJacksonNode(parsed));
+    }
+
+    // The partitioned node is moved, rather than removed and added again
+    assertThat(patch.toString()).isEqualTo("["
+        + "{\"op\":\"add\",\"path\":\"/info\",\"value\":{}},"
+        + "{\"op\":\"move\",\"from\":\"/person/fullName\",\"path\":\"/info/fullName\"}]");
+  }
+
+  @Test
+  public void patchLeavesOutUndoneChanges() throws JsonProcessingException {
+    JsonDocument parsed = JsonDocument.parse("{\"a\": 1, \"b\": {\"c\": 2}}");
+
+    ArrayNode patch = JsonPatchRecorder.record(parsed, null, () -> {
+      parsed.transform("a").renameTo("x").apply();
+      Assert.assertThrows(IllegalArgumentException.class, () -> parsed.transform("b")
+          .deleteChild("c").manipulateValue("missing", node -> node.setValue(node.intValue()))
+          .applyAtomically());
+    });
+
+    assertThat(patch.toString()).isEqualTo("[{\"op\":\"move\",\"from\":\"/a\",\"path\":\"/x\"}]");
+    JsonAssert.assertIntValue(parsed.selectSingle("b c").orElseThrow(), 2);
+  }
+
+  @Test
+  public void patchReplacesArrayElementsWithNewIds() throws IOException {
+    InlineIdsNamingStrategy strategy = new InlineIdsNamingStrategy();
+    JsonNode tree = new ObjectMapper().readTree("{\"list\": [{\"a\": 1, \"@id\": null}]}");
+    JsonDocument document = JacksonConverter.asTransformable(tree, strategy);
+    BaseNode element = document.selectSingle("list > *").orElseThrow();
+
+    ArrayNode patch = JsonPatchRecorder.record(document, strategy,
+        () -> element.getIdentifier().setId("ff"));
+
+    assertThat(patch.toString()).isEqualTo(
+        "[{\"op\":\"replace\",\"path\":\"/list/0\",\"value\":{\"a\":1,\"@id\":\"ff\"}}]");
+    assertThat(new BaseNodeWriter(strategy).writeAsString(document))
+        .isEqualTo("{\"list\":[{\"a\":1,\"@id\":\"ff\"}]}");
+  }
+
+  private static void randomJson(Random random, StringBuilder json, int depth, boolean object) {
+    String[] names = {"a", "b", "c", "a #1f"};
+    json.append(object ? '{' : '[');
+    int size = depth > 3 ? 0 : random.nextInt(5);
+    for (int i = 0; i < size; i++) {
+      json.append(i == 0 ? "" : ",");
+      if (object) {
+        json.append('"').append(names[random.nextInt(names.length)]).append("\":");
+      }
+      switch (random.nextInt(6)) {
+        case 0, 1 -> randomJson(random, json, depth + 1, true);
+        case 2 -> randomJson(random, json, depth + 1, false);
+        case 3 -> json.append(random.nextInt(3));
+        default -> json.append("\"x").append(random.nextInt(2)).append('"');
+      }
+    }
+    json.append(object ? '}' : ']');
+  }
+
+  private static String randomSelector(Random random) {
+    String[] steps = {"a", "b", "c", ".object", ".array", ".string", "#1f", "[a=x1]", "[b]", "*",
+        "a.object"};
+    List<String> group = new ArrayList<>();
+    for (int i = random.nextInt(4) == 0 ? 1 : 0; i >= 0; i--) {
+      StringBuilder selector = new StringBuilder();
+      for (int j = random.nextInt(3); j >= 0; j--) {
+        selector.append(selector.length() == 0 ? "" : random.nextInt(3) == 0 ? " > " : " ");
+        selector.append(steps[random.nextInt(steps.length)]);
+      }
+      group.add(selector.toString());
+    }
+
+    return String.join(", ", group);
+  }
+
+  private static UnaryOperator<Transformer> randomFunction(Random random) {
+    String name = new String[]{"a", "b", "c", "d"}[random.nextInt(4)];
+    String to = new String[]{"a", "b", "z"}[random.nextInt(3)];
+    int index = random.nextInt(3);
+    ManipulateValueFunction exclaim = node -> node.setValue(node.getValue() + "!");
+    return switch (random.nextInt(8)) {
+      case 0 -> transformer -> transformer.renameTo(to);
+      case 1, 2 -> transformer -> transformer.renameChild(name, to);
+      case 3, 4 -> transformer -> transformer.deleteChild(name);
+      case 5 -> transformer -> transformer.deleteChild(index);
+      case 6 -> transformer -> transformer.manipulateValue(exclaim);
+      default -> transformer -> transformer.manipulateValue(name, exclaim);
+    };
+  }
+
+  /**
+   * Applies a JSON Patch with add, remove, replace and move operations to a copy of a tree.
+   */
+  private static JsonNode applyPatch(JsonNode tree, ArrayNode patch) {
+    JsonNode result = tree.deepCopy();
+    for (JsonNode operation : patch) {
+      String op = operation.get("op").asText();
+      JsonNode value = operation.get("value");
+      if (op.equals("move")) {
+        value = patchRemove(result, operation.get("from").asText());
+      } else if (!op.equals("add")) {
+        patchRemove(result, operation.get("path").asText());
+      }
+      if (!op.equals("remove")) {
+        patchAdd(result, operation.get("path").asText(), value);
+      }
+    }
+
+    return result;
+  }
+
+  private static JsonNode patchRemove(JsonNode tree, String path) {
+    JsonNode parent = patchParent(tree, path);
+    String token = patchToken(path);
+    return parent.isArray()
+        ? ((ArrayNode) parent).remove(Integer.parseInt(token))
+        : ((ObjectNode) parent).remove(token);
+  }
+
+  private static void patchAdd(JsonNode tree, String path, JsonNode value) {
+    JsonNode parent = patchParent(tree, path);
+    String token = patchToken(path);
+    if (parent.isObject()) {
+      ((ObjectNode) parent).set(token, value.deepCopy());
+    } else if (token.equals("-")) {
+      ((ArrayNode) parent).add(value.deepCopy());
+    } else {
+      ((ArrayNode) parent).insert(Integer.parseInt(token), value.deepCopy());
+    }
+  }
+
+  private static JsonNode patchParent(JsonNode tree, String path) {
+    JsonNode parent = tree;
+    String[] tokens = path.split("/", -1);
+    for (int i = 1; i < tokens.length - 1; i++) {
+      String token = tokens[i].replace("~1", "/").replace("~0", "~");
+      parent = parent.isArray() ? parent.get(Integer.parseInt(token)) : parent.get(token);
+    }
+
+    return parent;
+  }
+
+  private static String patchToken(String path) {
+    String token = path.substring(path.lastIndexOf('/') + 1);
+    return token.replace("~1", "/").replace("~0", "~");
+  }
 }
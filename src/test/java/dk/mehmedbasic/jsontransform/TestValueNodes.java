@@ -0,0 +1,111 @@
+package dk.mehmedbasic.jsontransform;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.mehmedbasic.jsonast.BaseNode;
+import dk.mehmedbasic.jsonast.JsonDocument;
+import dk.mehmedbasic.jsonast.JsonValueNode;
+import dk.mehmedbasic.jsonast.JsonValueNode.ValueType;
+import dk.mehmedbasic.jsonast.conversion.BaseNodeWriter;
+import dk.mehmedbasic.jsonast.conversion.JacksonConverter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the typed value nodes.
+ */
+public class TestValueNodes {
+
+  private static final String JSON = "{\"int\":42,\"long\":12345678901,"
+      + "\"big\":123456789012345678901234567890,\"double\":1.5,"
+      + "\"true\":true,\"null\":null,"
+      + "\"string\":\"text\",\"list\":[1,2.5,null]}";
+
+  private JsonDocument document;
+
+  @Before
+  public void prepare() throws IOException {
+    document = JsonDocument.parse(JSON);
+  }
+
+  @Test
+  public void parsedTypes() {
+    assertThat(valueOf("int").getValueType()).isEqualTo(ValueType.Int);
+    assertThat(valueOf("long").longValue()).isEqualTo(12345678901L);
+    assertThat(valueOf("big").bigDecimalValue())
+        .isEqualTo(new BigDecimal("123456789012345678901234567890"));
+    assertThat(valueOf("double").doubleValue()).isEqualTo(1.5d);
+    assertThat(valueOf("true").booleanValue()).isTrue();
+    assertThat(valueOf("null").isNull()).isTrue();
+    assertThat(valueOf("string").stringValue()).isEqualTo("text");
+
+    JsonAssert.assertRootCount(document.select(".int"), 2);
+    JsonAssert.assertRootCount(document.select(".long"), 1);
+    JsonAssert.assertRootCount(document.select(".decimal"), 1);
+    JsonAssert.assertRootCount(document.select(".double"), 2);
+    for (BaseNode node : document.select(".int")) {
+      assertThat(node.isInt()).isTrue();
+    }
+    assertThat(valueOf("long").isLong()).isTrue();
+    assertThat(valueOf("big").isBigDecimal()).isTrue();
+  }
+
+  @Test
+  public void roundTrip() throws IOException {
+    assertThat(new BaseNodeWriter().writeAsString(document)).isEqualTo(JSON);
+
+    JsonNode expected = new ObjectMapper().readTree(JSON);
+    assertThat(JacksonConverter.asJacksonNode(JacksonConverter.asTransformable(expected)))
+        .isEqualTo(expected);
+  }
+
+  @Test
+  public void valueChangesType() {
+    JsonValueNode node = valueOf("string");
+    node.setValue(7);
+    assertThat(node.isInt()).isTrue();
+    assertThat(node.intValue()).isEqualTo(7);
+    assertThat(node.doubleValue()).isEqualTo(7d);
+
+    node.setRawValue(3L);
+    assertThat(node.isLong()).isTrue();
+
+    node.setValue(new BigDecimal("1.50000000000000000000000000001"));
+    assertThat(node.isBigDecimal()).isTrue();
+    assertThat(node.getValue()).isEqualTo(new BigDecimal("1.50000000000000000000000000001"));
+
+    node.setValue("back");
+    assertThat(node.isString()).isTrue();
+    assertThatThrownBy(node::intValue).isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void numbersThatDoNotFitThrow() {
+    assertThatThrownBy(() -> valueOf("long").intValue()).isInstanceOf(ArithmeticException.class);
+    assertThatThrownBy(() -> valueOf("big").intValue()).isInstanceOf(ArithmeticException.class);
+    assertThatThrownBy(() -> valueOf("big").longValue()).isInstanceOf(ArithmeticException.class);
+
+    JsonValueNode node = valueOf("double");
+    assertThat(node.intValue()).isEqualTo(1);
+    node.setValue(-2147483648.5d);
+    assertThat(node.intValue()).isEqualTo(Integer.MIN_VALUE);
+    node.setValue(4294967299d);
+    assertThatThrownBy(node::intValue).isInstanceOf(ArithmeticException.class);
+    assertThat(node.longValue()).isEqualTo(4294967299L);
+    node.setValue(1e19);
+    assertThatThrownBy(node::longValue).isInstanceOf(ArithmeticException.class);
+    node.setValue(Double.NaN);
+    assertThatThrownBy(node::intValue).isInstanceOf(ArithmeticException.class);
+  }
+
+  private JsonValueNode valueOf(String name) {
+    BaseNode node = document.getRoots().iterator().next().get(name);
+    assertThat(node).isInstanceOf(JsonValueNode.class);
+    return (JsonValueNode) node;
+  }
+}
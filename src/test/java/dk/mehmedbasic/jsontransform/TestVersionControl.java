@@ -0,0 +1,268 @@
+package dk.mehmedbasic.jsontransform;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import dk.mehmedbasic.jsonast.BaseNode;
+import dk.mehmedbasic.jsonast.DocumentHistory;
+import dk.mehmedbasic.jsonast.DocumentVersion;
+import dk.mehmedbasic.jsonast.JsonDocument;
+import dk.mehmedbasic.jsonast.JsonValueNode;
+import dk.mehmedbasic.jsonast.conversion.BaseNodeWriter;
+import dk.mehmedbasic.jsonast.conversion.InlineIdsNamingStrategy;
+import dk.mehmedbasic.jsonast.transform.MergeValueFunction;
+import dk.mehmedbasic.jsonast.transform.Transformer;
+import dk.mehmedbasic.jsonast.transform.VersionControl;
+import dk.mehmedbasic.jsonast.transform.VersionedTransformation;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests version control, with the transformations of {@code transformation_series_1} written in
+ * Java.
+ */
+public class TestVersionControl {
+
+  private static final BaseNodeWriter WRITER = new BaseNodeWriter(new InlineIdsNamingStrategy());
+
+  private VersionControl control;
+
+  @Before
+  public void setup() {
+    control = new VersionControl(version5(), version3(), version1(), version4(), version2());
+  }
+
+  @Test
+  public void migratesToLatest() throws JsonProcessingException {
+    JsonDocument document = JsonDocument.parse("{\"person\": {\"name\": \"John Ronald Tolkien\"}}");
+
+    assertThat(control.apply(document)).isEqualTo(5);
+    assertThat(VersionControl.versionOf(document)).isEqualTo(5);
+
+    BaseNode person = document.selectSingle("person").orElseThrow();
+    JsonAssert.assertStringValue(person.get("name"), "John Ronald Tolkien");
+    JsonAssert.assertIntValue(person.get("yearOfBirth"), 1960);
+    JsonAssert.assertStringValue(person.get("dog").get("name"), "bingo");
+    assertThat(person.get("firstName")).isNull();
+    assertThat(person.get("billy")).isNull();
+    JsonAssert.assertRootCount(document.select(".sysclass_version"), 1);
+  }
+
+  @Test
+  public void skipsAppliedVersions() throws JsonProcessingException {
+    JsonDocument document = JsonDocument.parse("{\"@version\": 3, \"person\": "
+        + "{\"firstName\": \"Ada\", \"lastName\": \"Lovelace\", \"age\": 36}}");
+
+    assertThat(control.apply(document, 4)).isEqualTo(4);
+
+    BaseNode person = document.selectSingle("person").orElseThrow();
+    JsonAssert.assertIntValue(person.get("yearOfBirth"), 1984);
+    assertThat(person.get("dog")).isNull();
+    JsonAssert.assertStringValue(person.get("firstName"), "Ada");
+    JsonAssert.assertIntValue(document.selectSingle(".sysclass_version").orElseThrow(), 4);
+  }
+
+  @Test
+  public void leavesCurrentDocumentsAlone() throws JsonProcessingException {
+    JsonDocument document = JsonDocument.parse("{\"@version\": 5, \"person\": {\"age\": 36}}");
+
+    assertThat(control.apply(document, 2)).isEqualTo(5);
+    JsonAssert.assertIntValue(document.selectSingle("person age").orElseThrow(), 36);
+  }
+
+  @Test
+  public void recordsEveryVersion() throws IOException {
+    StringBuilder json = new StringBuilder("{\"person\": {\"name\": \"Ada Lovelace\"}, \"log\": [");
+    for (int i = 0; i < 1_000; i++) {
+      json.append(i == 0 ? "" : ", ").append("{\"entry\": ").append(i).append('}');
+    }
+    JsonDocument document = JsonDocument.parse(json.append("]}").toString());
+    String original = WRITER.writeAsString(document);
+
+    DocumentHistory history = new DocumentHistory(document);
+    List<DocumentVersion> versions = control.apply(history, 5);
+
+    assertThat(versions).hasSize(5);
+    assertThat(history.getVersions()).hasSize(6);
+    assertThat(versions.get(2).getLabel()).isEqualTo("Adds age to the person");
+    for (DocumentVersion version : versions) {
+      // The person and the path to it, the log is shared
+      assertThat(version.getCreatedNodes()).isLessThan(20);
+    }
+
+    assertThat(WRITER.writeAsString(history.getVersions().get(0).toDocument()))
+        .isEqualTo(original);
+    assertThat(WRITER.writeAsString(history.getLatest().toDocument()))
+        .isEqualTo(WRITER.writeAsString(document));
+
+    JsonDocument second = versions.get(1).toDocument();
+    BaseNode person = second.selectSingle("person").orElseThrow();
+    JsonAssert.assertStringValue(person.get("firstName"), "Ada");
+    JsonAssert.assertStringValue(person.get("lastName"), "Lovelace");
+    JsonAssert.assertIntValue(second.selectSingle(".sysclass_version").orElseThrow(), 2);
+    JsonAssert.assertRootCount(second.select("log entry"), 1_000);
+  }
+
+  @Test
+  public void historyForgetsRemovedNodesAndCanBeClosed() throws IOException {
+    StringBuilder json = new StringBuilder("{\"person\": {\"name\": \"Ada Lovelace\"}, \"log\": [");
+    for (int i = 0; i < 100; i++) {
+      json.append(i == 0 ? "" : ", ").append("{\"entry\": ").append(i).append('}');
+    }
+    JsonDocument document = JsonDocument.parse(json.append("]}").toString());
+    String original = WRITER.writeAsString(document);
+    BaseNode root = document.getRoots().iterator().next();
+    BaseNode log = root.get("log");
+
+    DocumentHistory history = new DocumentHistory(document);
+    Assert.assertThrows(IllegalStateException.class, () -> new DocumentHistory(document));
+
+    root.removeNode(log);
+    assertThat(history.commit("Removes the log").getCreatedNodes()).isEqualTo(1);
+
+    // The log was forgotten along with its entries, so putting it back records it again
+    root.addChild(log);
+    assertThat(history.commit("Puts the log back").getCreatedNodes()).isGreaterThan(200);
+
+    history.close();
+    Assert.assertThrows(IllegalStateException.class, () -> history.commit("Closed"));
+    assertThat(WRITER.writeAsString(history.getVersions().get(0).toDocument()))
+        .isEqualTo(original);
+    JsonAssert.assertRootCount(history.getVersions().get(1).toDocument().select("entry"), 0);
+
+    DocumentHistory second = new DocumentHistory(document);
+    ((JsonValueNode) root.get("person").get("name")).setValue("Augusta Ada King");
+    assertThat(second.commit("Renames Ada").getCreatedNodes()).isEqualTo(3);
+    second.close();
+  }
+
+  @Test
+  public void undoesFailedMigrations() throws IOException {
+    StringBuilder json = new StringBuilder("{\"person\": {\"name\": \"Ada Lovelace\"}, \"log\": [");
+    for (int i = 0; i < 20_000; i++) {
+      json.append(i == 0 ? "" : ", ").append("{\"entry\": ").append(i).append('}');
+    }
+    JsonDocument document = JsonDocument.parse(json.append("]}").toString());
+    String original = WRITER.writeAsString(document);
+
+    VersionControl failing = new VersionControl(version1(), version2(),
+        new VersionedTransformation(3, "Fails half way",
+            new Transformer("person", null).manipulateValue(node -> node.setValue(0))));
+
+    Assert.assertThrows(IllegalArgumentException.class, () -> failing.apply(document));
+
+    assertThat(WRITER.writeAsString(document)).isEqualTo(original);
+    assertThat(VersionControl.versionOf(document)).isZero();
+    JsonAssert.assertRootCount(document.select("log entry"), 20_000);
+    JsonAssert.assertRootCount(document.select("billy"), 0);
+    assertThat(control.apply(document)).isEqualTo(5);
+    JsonAssert.assertStringValue(document.selectSingle("person > name").orElseThrow(),
+        "Ada Lovelace");
+  }
+
+  @Test
+  public void rejectsDuplicateVersions() {
+    Assert.assertThrows(IllegalArgumentException.class,
+        () -> new VersionControl(version1(), version1()));
+  }
+
+  @Test
+  public void migratesManyDocumentsWithOnePlan() throws JsonProcessingException {
+    int count = 5_000;
+    List<JsonDocument> documents = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      documents.add(JsonDocument.parse("{\"person\": {\"name\": \"Person Number " + i + "\"}}"));
+    }
+
+    for (JsonDocument document : documents) {
+      assertThat(control.apply(document)).isEqualTo(5);
+    }
+
+    assertThat(control.getCompiledPlans()).isEqualTo(1);
+    JsonAssert.assertStringValue(
+        documents.get(count - 1).selectSingle("person > name").orElseThrow(),
+        "Person Number " + (count - 1));
+  }
+
+  @Test
+  public void sharesPlansBetweenVersions() throws JsonProcessingException {
+    for (int version : new int[]{-7, -1, 0, Integer.MIN_VALUE}) {
+      JsonDocument document = JsonDocument.parse(
+          "{\"@version\": " + version + ", \"person\": {\"name\": \"Ada Lovelace\"}}");
+      assertThat(control.apply(document, 4)).isEqualTo(4);
+    }
+    JsonDocument third = JsonDocument.parse("{\"@version\": 3, \"person\": {\"age\": 36}}");
+    assertThat(control.apply(third, 4)).isEqualTo(4);
+
+    // Everything before version 1 shares a plan, and so does version 3
+    assertThat(control.getCompiledPlans()).isEqualTo(2);
+  }
+
+  @Test
+  public void rejectsVersionsThatAreNotInts() throws JsonProcessingException {
+    for (String version : List.of("4294967299", "3.5", "\"3\"")) {
+      JsonDocument document = JsonDocument.parse("{\"@version\": " + version + "}");
+      Assert.assertThrows(IllegalStateException.class, () -> control.apply(document));
+    }
+  }
+
+  private static VersionedTransformation version1() {
+    return new VersionedTransformation(1,
+        "Renames the 'name' property to 'billy' and adds a dog named bingo.",
+        new Transformer("name", null).renameTo("billy"),
+        new Transformer("person", null).addJson("dog", "{\"type\":\"dog\", \"name\": \"bingo\"}"));
+  }
+
+  private static VersionedTransformation version2() {
+    MergeValueFunction first = new MergeValueFunction() {
+      @Override
+      public void applyValue(JsonValueNode source, JsonValueNode destination) {
+        List<String> names = Arrays.asList(source.stringValue().split(" "));
+        destination.setValue(String.join(" ", names.subList(0, names.size() - 1)));
+      }
+    };
+    MergeValueFunction last = new MergeValueFunction() {
+      @Override
+      public void applyValue(JsonValueNode source, JsonValueNode destination) {
+        List<String> names = Arrays.asList(source.stringValue().split(" "));
+        destination.setValue(names.get(names.size() - 1));
+      }
+    };
+
+    return new VersionedTransformation(2,
+        "Partitions the 'billy' property into a first and last name.",
+        new Transformer("person", null).add("firstName", "").add("lastName", ""),
+        new Transformer("person billy", null).merge("firstName", first).merge("lastName", last),
+        new Transformer("person", null).deleteChild("billy"));
+  }
+
+  private static VersionedTransformation version3() {
+    return new VersionedTransformation(3, "Adds age to the person",
+        new Transformer("person", null).add("age", 60));
+  }
+
+  private static VersionedTransformation version4() {
+    return new VersionedTransformation(4, "Transform the age into year of birth",
+        new Transformer("person", null).renameChild("age", "yearOfBirth"),
+        new Transformer("person", null)
+            .manipulateValue("yearOfBirth", node -> node.setValue(2020 - node.intValue())));
+  }
+
+  private static VersionedTransformation version5() {
+    MergeValueFunction merger = new MergeValueFunction() {
+      @Override
+      public void applyValue(JsonValueNode source, JsonValueNode destination) {
+        destination.setValue(source.getValue() + " " + destination.stringValue());
+      }
+    };
+
+    return new VersionedTransformation(5, "Merge first and last names into a single field",
+        new Transformer("person firstName", null).merge("lastName", merger),
+        new Transformer("person", null).deleteChild("firstName").renameChild("lastName", "name"));
+  }
+}